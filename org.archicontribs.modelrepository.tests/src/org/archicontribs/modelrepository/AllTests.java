@@ -8,7 +8,10 @@ package org.archicontribs.modelrepository;
 
 import org.archicontribs.modelrepository.authentication.CryptoDataTests;
 import org.archicontribs.modelrepository.grafico.ArchiRepositoryTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoObjectWriterTests;
 import org.archicontribs.modelrepository.grafico.GraficoUtilsTests;
+import org.archicontribs.modelrepository.merge.ModelObjectMergerTests;
 import org.junit.platform.suite.api.SelectClasses;
 import org.junit.platform.suite.api.Suite;
 import org.junit.platform.suite.api.SuiteDisplayName;
@@ -17,6 +20,9 @@ import org.junit.platform.suite.api.SuiteDisplayName;
 @SelectClasses({
     ArchiRepositoryTests.class,
     GraficoUtilsTests.class,
+    GraficoObjectWriterTests.class,
+    GraficoModelExporterTests.class,
+    ModelObjectMergerTests.class,
     CryptoDataTests.class
 })
 @SuiteDisplayName("All Model Repository Tests")
@@ -0,0 +1,104 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IBusinessRole;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IProfile;
+import com.archimatetool.model.IProperty;
+
+@SuppressWarnings("nls")
+public class ModelHelper {
+    
+    /**
+     * @return A model with a profile, a user folder, elements with a property and a relation, and a diagram with a connection
+     */
+    public static IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setName("Test Model");
+        model.setPurpose("Purpose with <markup> & \"quotes\"\nand a new line");
+        
+        IProfile profile = IArchimateFactory.eINSTANCE.createProfile();
+        profile.setName("Specialization");
+        profile.setConceptType(IArchimatePackage.Literals.BUSINESS_ACTOR);
+        model.getProfiles().add(profile);
+        
+        IFolder userFolder = IArchimateFactory.eINSTANCE.createFolder();
+        userFolder.setName("User Folder");
+        model.getFolder(FolderType.BUSINESS).getFolders().add(userFolder);
+        
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setName("Actor");
+        actor.setDocumentation("Documentation");
+        actor.getProfiles().add(profile);
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("key");
+        property.setValue("value");
+        actor.getProperties().add(property);
+        userFolder.getElements().add(actor);
+        
+        IBusinessRole role = IArchimateFactory.eINSTANCE.createBusinessRole();
+        role.setName("Role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssignmentRelationship();
+        relation.connect(actor, role);
+        model.getDefaultFolderForObject(relation).getElements().add(relation);
+        
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setName("View");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(10, 10, 120, 55);
+        dm.getChildren().add(dmo1);
+        
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(200, 10, 120, 55);
+        dm.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+        
+        return model;
+    }
+    
+    /**
+     * @return All files in a folder and its sub-folders
+     */
+    public static List<File> listFiles(File folder) {
+        return listFiles(folder, new ArrayList<>());
+    }
+    
+    private static List<File> listFiles(File folder, List<File> files) {
+        for(File file : folder.listFiles()) {
+            if(file.isDirectory()) {
+                listFiles(file, files);
+            }
+            else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
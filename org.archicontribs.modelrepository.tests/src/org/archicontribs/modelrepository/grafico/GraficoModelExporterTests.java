@@ -0,0 +1,129 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.ModelHelper;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IBusinessRole;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IFolder;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelExporterTests {
+    
+    private IArchimateModel model;
+    
+    @AfterEach
+    public void runOnceAfterEachTest() throws IOException {
+        if(model != null) {
+            IEditorModelManager.INSTANCE.closeModel(model);
+            model = null;
+        }
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void exportModelIncremental_AfterChanges_IsSameAsExportModel() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        // Open the model in the repo so that its changes are tracked
+        model = ModelHelper.createModel();
+        model.setFile(new File(localRepoFolder, ".git/" + IGraficoConstants.LOCAL_ARCHI_FILENAME));
+        IEditorModelManager.INSTANCE.openModel(model);
+        
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.exportModelIncremental();
+        assertSameAsExportModel(localRepoFolder);
+        
+        IFolder businessFolder = model.getFolder(FolderType.BUSINESS);
+        IFolder userFolder = businessFolder.getFolders().get(0);
+        IBusinessActor actor = (IBusinessActor)userFolder.getElements().get(0);
+        IBusinessRole role = (IBusinessRole)businessFolder.getElements().get(0);
+        IArchimateDiagramModel dm = (IArchimateDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        
+        // Edit objects, move an element and add a folder with an element
+        actor.setName("Actor changed");
+        actor.getProperties().get(0).setValue("value changed");
+        userFolder.getElements().add(role);
+        dm.getChildren().get(0).setBounds(50, 50, 120, 55);
+        
+        IFolder newFolder = IArchimateFactory.eINSTANCE.createFolder();
+        newFolder.setName("New Folder");
+        businessFolder.getFolders().add(newFolder);
+        IBusinessActor newActor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        newActor.setName("New Actor");
+        newFolder.getElements().add(newActor);
+        
+        exporter.exportModelIncremental();
+        assertNotNull(exporter.getChangedPaths());
+        assertSameAsExportModel(localRepoFolder);
+        
+        // Re-parent a folder with its elements, rename it and edit the model
+        newFolder.getFolders().add(userFolder);
+        userFolder.setName("User Folder moved");
+        model.setPurpose("Purpose changed");
+        
+        exporter.exportModelIncremental();
+        assertNotNull(exporter.getChangedPaths());
+        assertSameAsExportModel(localRepoFolder);
+        
+        // Delete a relation and its connection, and a folder with its elements
+        IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)dm.getChildren().get(0).getSourceConnections().get(0);
+        IArchimateRelationship relation = connection.getArchimateRelationship();
+        connection.disconnect();
+        ((IFolder)relation.eContainer()).getElements().remove(relation);
+        dm.getChildren().clear();
+        businessFolder.getFolders().remove(newFolder);
+        
+        exporter.exportModelIncremental();
+        assertNotNull(exporter.getChangedPaths());
+        assertSameAsExportModel(localRepoFolder);
+    }
+    
+    /**
+     * Assert that the files in the model folder are the same as a full export of a copy of the model
+     */
+    private void assertSameAsExportModel(File actualFolder) throws IOException {
+        File expectedFolder = new File(GitHelper.getTempTestsFolder(), "expected");
+        FileUtils.deleteFolder(expectedFolder);
+        new GraficoModelExporter(EcoreUtil.copy(model), expectedFolder).exportModel();
+        
+        List<File> expectedFiles = ModelHelper.listFiles(new File(expectedFolder, IGraficoConstants.MODEL_FOLDER));
+        List<File> actualFiles = ModelHelper.listFiles(new File(actualFolder, IGraficoConstants.MODEL_FOLDER));
+        
+        assertEquals(expectedFiles.size(), actualFiles.size());
+        
+        for(File expectedFile : expectedFiles) {
+            String relativePath = expectedFolder.toPath().relativize(expectedFile.toPath()).toString();
+            File actualFile = new File(actualFolder, relativePath);
+            assertTrue(actualFile.isFile(), relativePath);
+            assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(actualFile.toPath()), relativePath);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.ModelHelper;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+@SuppressWarnings("nls")
+public class GraficoObjectWriterTests {
+    
+    @AfterEach
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void exportModel_IsSameAsResourceSetExport() throws Exception {
+        IArchimateModel model = ModelHelper.createModel();
+        
+        File expectedFolder = new File(GitHelper.getTempTestsFolder(), "expected");
+        File actualFolder = new File(GitHelper.getTempTestsFolder(), "actual");
+        
+        exportWithResourceSet(model, expectedFolder);
+        new GraficoModelExporter(model, actualFolder).exportModel();
+        
+        List<File> expectedFiles = ModelHelper.listFiles(new File(expectedFolder, IGraficoConstants.MODEL_FOLDER));
+        List<File> actualFiles = ModelHelper.listFiles(new File(actualFolder, IGraficoConstants.MODEL_FOLDER));
+        
+        assertTrue(expectedFiles.size() > 10);
+        assertEquals(expectedFiles.size(), actualFiles.size());
+        
+        for(File expectedFile : expectedFiles) {
+            String relativePath = expectedFolder.toPath().relativize(expectedFile.toPath()).toString();
+            File actualFile = new File(actualFolder, relativePath);
+            assertTrue(actualFile.isFile(), relativePath);
+            assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(actualFile.toPath()), relativePath);
+        }
+    }
+    
+    @Test
+    public void write_ReusedWriterIsSameAsNewWriter() throws Exception {
+        IArchimateModel model = ModelHelper.createModel();
+        
+        GraficoObjectWriter reusedWriter = new GraficoObjectWriter();
+        
+        for(IFolder folder : model.getFolders()) {
+            for(EObject element : folder.getElements()) {
+                URI uri = URI.createFileURI(element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml");
+                
+                reusedWriter.write(EcoreUtil.copy(element), uri);
+                
+                GraficoObjectWriter newWriter = new GraficoObjectWriter();
+                newWriter.write(EcoreUtil.copy(element), uri);
+                
+                assertArrayEquals(newWriter.toByteArray(), reusedWriter.toByteArray());
+            }
+        }
+    }
+    
+    /**
+     * Export the model by copying it and saving each object in a Resource of a ResourceSet as GraficoModelExporter used to do,
+     * with the save options that it used rather than GraficoObjectWriter's
+     */
+    private void exportWithResourceSet(IArchimateModel model, File folder) throws IOException {
+        ResourceSet resourceSet = new ResourceSetImpl();
+        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl());
+        resourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+        
+        File modelFolder = new File(folder, IGraficoConstants.MODEL_FOLDER);
+        createResources(resourceSet, EcoreUtil.copy(model), modelFolder);
+        
+        for(Resource resource : resourceSet.getResources()) {
+            resource.save(null);
+        }
+    }
+    
+    private void createResources(ResourceSet resourceSet, IFolderContainer folderContainer, File folder) {
+        for(IFolder childFolder : folderContainer.getFolders()) {
+            File childFolderFile = new File(folder, childFolder.getType() == FolderType.USER ? childFolder.getId() : childFolder.getType().toString());
+            childFolderFile.mkdirs();
+            createResource(resourceSet, new File(childFolderFile, IGraficoConstants.FOLDER_XML), childFolder);
+            createResources(resourceSet, childFolder, childFolderFile);
+        }
+        
+        if(folderContainer instanceof IFolder) {
+            for(EObject element : new ArrayList<>(((IFolder)folderContainer).getElements())) {
+                createResource(resourceSet, new File(folder, element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml"), element);
+            }
+        }
+        
+        if(folderContainer instanceof IArchimateModel) {
+            createResource(resourceSet, new File(folder, IGraficoConstants.FOLDER_XML), folderContainer);
+        }
+    }
+    
+    private void createResource(ResourceSet resourceSet, File file, EObject object) {
+        URI key = (!(object instanceof IArchimateModel) && file.getName().equals(IGraficoConstants.FOLDER_XML)) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+        resourceSet.getURIConverter().getURIMap().put(key, URI.createFileURI(file.getAbsolutePath()));
+        XMLResource resource = (XMLResource)resourceSet.createResource(key);
+        
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8");
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, Integer.valueOf(5));
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n");
+        
+        resource.getContents().add(object);
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.junit.jupiter.api.Test;
+
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IBusinessActor;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelConnection;
+import com.archimatetool.model.IDiagramModelObject;
+import com.archimatetool.model.IProperty;
+
+
+@SuppressWarnings("nls")
+public class ModelObjectMergerTests {
+    
+    @Test
+    public void merge_ChangedOnOneSide_HasChange() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.setDocumentation("Our documentation");
+        theirs.setName("Their View");
+        
+        IArchimateDiagramModel result = merge(base, ours, theirs);
+        
+        assertEquals("Their View", result.getName());
+        assertEquals("Our documentation", result.getDocumentation());
+        assertEquals(Set.of("dmo1", "dmo2"), getChildIDs(result));
+    }
+    
+    @Test
+    public void merge_SameFeatureChangedDifferently_IsConflict() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.setName("Our View");
+        theirs.setName("Their View");
+        
+        assertNull(new ModelObjectMerger(base, ours, theirs).merge());
+    }
+    
+    @Test
+    public void merge_SameFeatureChangedTheSame_HasChange() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.setName("New View");
+        theirs.setName("New View");
+        
+        assertEquals("New View", merge(base, ours, theirs).getName());
+    }
+    
+    @Test
+    public void merge_ChildrenAddedAndRemovedOnBothSides_AreMerged() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.getChildren().remove(getChild(ours, "dmo1"));
+        ours.getChildren().add(createDiagramObject("dmo3", createProxy("actor3")));
+        
+        theirs.getChildren().remove(getChild(theirs, "dmo2"));
+        theirs.getChildren().add(createDiagramObject("dmo4", createProxy("actor4")));
+        
+        IArchimateDiagramModel result = merge(base, ours, theirs);
+        
+        assertEquals(Set.of("dmo3", "dmo4"), getChildIDs(result));
+    }
+    
+    @Test
+    public void merge_ChildChangedAndRemoved_IsConflict() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        getChild(ours, "dmo1").setBounds(50, 50, 120, 55);
+        theirs.getChildren().remove(getChild(theirs, "dmo1"));
+        
+        assertNull(new ModelObjectMerger(base, ours, theirs).merge());
+    }
+    
+    @Test
+    public void merge_ConnectionAdded_ReferencesMergedChildren() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        getChild(ours, "dmo1").setBounds(50, 50, 120, 55);
+        
+        IDiagramModelConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelConnection();
+        connection.setId("connection");
+        connection.connect(getChild(theirs, "dmo1"), getChild(theirs, "dmo2"));
+        
+        IArchimateDiagramModel result = merge(base, ours, theirs);
+        
+        IDiagramModelObject dmo1 = getChild(result, "dmo1");
+        IDiagramModelObject dmo2 = getChild(result, "dmo2");
+        
+        assertEquals(50, dmo1.getBounds().getX());
+        assertEquals(1, dmo1.getSourceConnections().size());
+        
+        IDiagramModelConnection resultConnection = dmo1.getSourceConnections().get(0);
+        assertEquals("connection", resultConnection.getId());
+        assertSame(dmo1, resultConnection.getSource());
+        assertSame(dmo2, resultConnection.getTarget());
+        assertTrue(dmo2.getTargetConnections().contains(resultConnection));
+    }
+    
+    @Test
+    public void merge_ReferenceChangedToProxy_HasTheirProxy() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        getChild(ours, "dmo2").setBounds(50, 50, 120, 55);
+        ((IDiagramModelArchimateObject)getChild(theirs, "dmo1")).setArchimateElement(createProxy("actor3"));
+        
+        IArchimateDiagramModel result = merge(base, ours, theirs);
+        
+        IArchimateElement element = ((IDiagramModelArchimateObject)getChild(result, "dmo1")).getArchimateElement();
+        assertTrue(element.eIsProxy());
+        assertEquals("actor3", ((InternalEObject)element).eProxyURI().fragment());
+        assertEquals(50, getChild(result, "dmo2").getBounds().getX());
+    }
+    
+    @Test
+    public void merge_ReferenceChangedToDifferentProxies_IsConflict() {
+        IArchimateDiagramModel base = createDiagram();
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ((IDiagramModelArchimateObject)getChild(ours, "dmo1")).setArchimateElement(createProxy("actor3"));
+        ((IDiagramModelArchimateObject)getChild(theirs, "dmo1")).setArchimateElement(createProxy("actor4"));
+        
+        assertNull(new ModelObjectMerger(base, ours, theirs).merge());
+    }
+    
+    @Test
+    public void merge_AddedOnBothSides_ChildrenAreMerged() {
+        IArchimateDiagramModel ours = createDiagram();
+        IArchimateDiagramModel theirs = EcoreUtil.copy(ours);
+        
+        ours.getChildren().remove(getChild(ours, "dmo2"));
+        theirs.getChildren().remove(getChild(theirs, "dmo1"));
+        
+        IArchimateDiagramModel result = merge(null, ours, theirs);
+        
+        assertEquals("View", result.getName());
+        assertEquals(Set.of("dmo1", "dmo2"), getChildIDs(result));
+    }
+    
+    @Test
+    public void merge_AddedOnBothSidesDifferently_IsConflict() {
+        IArchimateDiagramModel ours = createDiagram();
+        IArchimateDiagramModel theirs = EcoreUtil.copy(ours);
+        
+        theirs.setName("Their View");
+        
+        assertNull(new ModelObjectMerger(null, ours, theirs).merge());
+    }
+    
+    @Test
+    public void merge_PropertiesChangedOnBothSides_AreMergedByKey() {
+        IArchimateDiagramModel base = createDiagram();
+        base.getProperties().add(createProperty("key1", "value1"));
+        base.getProperties().add(createProperty("key2", "value2"));
+        
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.getProperties().get(0).setValue("our value");
+        theirs.getProperties().remove(1);
+        theirs.getProperties().add(createProperty("key3", "value3"));
+        
+        IArchimateDiagramModel result = merge(base, ours, theirs);
+        
+        assertEquals(Map.of("key1", "our value", "key3", "value3"), getProperties(result));
+    }
+    
+    @Test
+    public void merge_PropertyChangedDifferently_IsConflict() {
+        IArchimateDiagramModel base = createDiagram();
+        base.getProperties().add(createProperty("key1", "value1"));
+        
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        
+        ours.getProperties().get(0).setValue("our value");
+        theirs.getProperties().get(0).setValue("their value");
+        
+        assertNull(new ModelObjectMerger(base, ours, theirs).merge());
+    }
+    
+    private IArchimateDiagramModel merge(IArchimateDiagramModel base, IArchimateDiagramModel ours, IArchimateDiagramModel theirs) {
+        IArchimateDiagramModel result = (IArchimateDiagramModel)new ModelObjectMerger(base, ours, theirs).merge();
+        assertTrue(result != null, "Merge has conflicts");
+        return result;
+    }
+    
+    /**
+     * A diagram with two objects that reference elements in other files
+     */
+    private IArchimateDiagramModel createDiagram() {
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm");
+        dm.setName("View");
+        dm.getChildren().add(createDiagramObject("dmo1", createProxy("actor1")));
+        dm.getChildren().add(createDiagramObject("dmo2", createProxy("actor2")));
+        return dm;
+    }
+    
+    private IDiagramModelArchimateObject createDiagramObject(String id, IArchimateElement element) {
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setId(id);
+        dmo.setArchimateElement(element);
+        dmo.setBounds(10, 10, 120, 55);
+        return dmo;
+    }
+    
+    /**
+     * A proxy of an element in its own file as it is when a diagram's file is loaded
+     */
+    private IArchimateElement createProxy(String id) {
+        IBusinessActor actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        ((InternalEObject)actor).eSetProxyURI(URI.createFileURI("BusinessActor_" + id + ".xml").appendFragment(id));
+        return actor;
+    }
+    
+    private IProperty createProperty(String key, String value) {
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey(key);
+        property.setValue(value);
+        return property;
+    }
+    
+    private IDiagramModelObject getChild(IArchimateDiagramModel dm, String id) {
+        for(IDiagramModelObject dmo : dm.getChildren()) {
+            if(id.equals(dmo.getId())) {
+                return dmo;
+            }
+        }
+        return null;
+    }
+    
+    private Set<String> getChildIDs(IArchimateDiagramModel dm) {
+        Set<String> ids = new HashSet<>();
+        for(IDiagramModelObject dmo : dm.getChildren()) {
+            ids.add(dmo.getId());
+        }
+        return ids;
+    }
+    
+    private Map<String, String> getProperties(IArchimateDiagramModel dm) {
+        Map<String, String> properties = new HashMap<>();
+        for(IProperty property : dm.getProperties()) {
+            properties.put(property.getKey(), property.getValue());
+        }
+        return properties;
+    }
+}
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.net.URL;
 
 import org.archicontribs.modelrepository.authentication.ProxyAuthenticator;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
@@ -50,6 +51,12 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin {
         ProxyAuthenticator.init();
     }
     
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        RepositoryPool.INSTANCE.closeAll();
+        super.stop(context);
+    }
+    
     /**
      * @return The File Location of this plugin
      */
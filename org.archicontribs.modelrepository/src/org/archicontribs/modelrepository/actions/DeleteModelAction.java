@@ -12,6 +12,8 @@ import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.archicontribs.modelrepository.views.repositories.RepositoryFolderWatcher;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.ui.IWorkbenchWindow;
 
@@ -58,6 +60,10 @@ public class DeleteModelAction extends AbstractModelAction {
                 }
             }
             
+            // Close the pooled Repository and stop watching the repo's folders so that its files are not open
+            RepositoryPool.INSTANCE.close(getRepository().getLocalRepositoryFolder());
+            RepositoryFolderWatcher.getInstance().unregister(getRepository().getLocalRepositoryFolder());
+            
             // Delete folder
             FileUtils.deleteFolder(getRepository().getLocalRepositoryFolder());
             
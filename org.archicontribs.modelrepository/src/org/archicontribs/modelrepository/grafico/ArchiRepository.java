@@ -7,7 +7,6 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -15,13 +14,17 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.authentication.CredentialsAuthenticator;
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jgit.api.AddCommand;
@@ -31,6 +34,7 @@ import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.PushCommand;
@@ -38,25 +42,25 @@ import org.eclipse.jgit.api.RemoteAddCommand;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.ui.PlatformUI;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -128,7 +132,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public String getOnlineRepositoryURL() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             return git.getRepository().getConfig().getString("remote", IGraficoConstants.ORIGIN, "url");
         }
     }
@@ -148,30 +152,37 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public boolean hasChangesToCommit() throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
-            return !status.isClean();
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
+            Status status = getGraficoStatus(git);
+            return status != null && !status.isClean();
         }
     }
     
     @Override
     public RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
+            Status status = getGraficoStatus(git);
             
             // Nothing changed
-            if(status.isClean()) {
+            if(status == null || status.isClean()) {
                 return null;
             }
             
             // Check lock file is deleted
             checkDeleteLockFile();
             
-            // Add modified files to index
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern(".");
-            addCommand.setUpdate(false);
-            addCommand.call();
+            // Add modified, new and merged files to index
+            Set<String> paths = new HashSet<>(status.getModified());
+            paths.addAll(status.getUntracked());
+            paths.addAll(status.getConflicting());
+            if(!paths.isEmpty()) {
+                AddCommand addCommand = git.add();
+                for(String path : paths) {
+                    addCommand.addFilepattern(path);
+                }
+                addCommand.setUpdate(false);
+                addCommand.call();
+            }
             
             // Add missing files to index
             for(String s : status.getMissing()) {
@@ -184,10 +195,47 @@ public class ArchiRepository implements IArchiRepository {
             commitCommand.setAuthor(userDetails);
             commitCommand.setMessage(commitMessage);
             commitCommand.setAmend(amend);
-            return commitCommand.call();
+            RevCommit commit = commitCommand.call();
+            
+            updateCommitGraph(git.getRepository());
+            
+            // Everything is committed
+            StatusPathHints.INSTANCE.setClean(git.getRepository());
+            
+            return commit;
         }
     }
     
+    /**
+     * Get the status of the files in the "model" and "images" folders, or only of the paths that could differ from HEAD if these are known.
+     * Files whose size and modification time are the same as in the index are not read (unless they are racily clean).
+     * @return The status or null if no path could differ from HEAD
+     */
+    private Status getGraficoStatus(Git git) throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        
+        Set<String> paths = StatusPathHints.INSTANCE.getChangedPaths(repository);
+        if(paths == null) {
+            paths = Set.of(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER);
+        }
+        else if(paths.isEmpty()) {
+            return null;
+        }
+        
+        StatusCommand statusCommand = git.status();
+        for(String path : paths) {
+            statusCommand.addPath(path);
+        }
+        
+        Status status = statusCommand.call();
+        
+        if(status.isClean()) {
+            StatusPathHints.INSTANCE.setClean(repository);
+        }
+        
+        return status;
+    }
+    
     @Override
     public void cloneModel(String repoURL, UsernamePassword npw, ProgressMonitor monitor) throws GitAPIException, IOException {
         CloneCommand cloneCommand = Git.cloneRepository();
@@ -203,7 +251,7 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public Iterable<PushResult> pushToRemote(UsernamePassword npw, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             PushCommand pushCommand = git.push();
             pushCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             pushCommand.setProgressMonitor(monitor);
@@ -219,7 +267,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PullResult pullFromRemote(UsernamePassword npw, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             PullCommand pullCommand = git.pull();
             pullCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             pullCommand.setRebase(false); // Merge, not rebase
@@ -230,14 +278,46 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             // Check and set tracked master branch
             setTrackedBranch(git.getRepository(), IGraficoConstants.MASTER);
             FetchCommand fetchCommand = git.fetch();
             fetchCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             fetchCommand.setProgressMonitor(monitor);
             fetchCommand.setDryRun(isDryrun);
-            return fetchCommand.call();
+            FetchResult result = fetchCommand.call();
+            
+            if(!isDryrun) {
+                updateCommitGraph(git.getRepository());
+            }
+            
+            return result;
+        }
+    }
+    
+    @Override
+    public boolean hasRemoteChanges(UsernamePassword npw) throws IOException, GitAPIException {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
+            LsRemoteCommand lsRemoteCommand = git.lsRemote();
+            lsRemoteCommand.setRemote(IGraficoConstants.ORIGIN);
+            lsRemoteCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
+            lsRemoteCommand.setHeads(true);
+            
+            // Ls-remote can't be cancelled so don't let a server that doesn't respond block it for ever
+            lsRemoteCommand.setTimeout(Math.max(1, ModelRepositoryPlugin.getInstance().getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_TIMEOUT)));
+            
+            Repository repository = git.getRepository();
+            
+            // A branch that is new or moved on the Remote. Branches deleted on the Remote are not checked as fetch doesn't remove them.
+            for(Ref ref : lsRemoteCommand.call()) {
+                String trackingName = Constants.R_REMOTES + IGraficoConstants.ORIGIN + "/" + Repository.shortenRefName(ref.getName());
+                Ref trackingRef = repository.exactRef(trackingName);
+                if(trackingRef == null || !ref.getObjectId().equals(trackingRef.getObjectId())) {
+                    return true;
+                }
+            }
+            
+            return false;
         }
     }
 
@@ -266,49 +346,54 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public byte[] getFileContents(String path, String ref) throws IOException {
-        byte[] bytes = null;
+        // Not found, return null
+        return getFileContents(Set.of(path), ref).get(path);
+    }
+
+    @Override
+    public Map<String, byte[]> getFileContents(Set<String> paths, String ref) throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
         
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        if(paths.isEmpty()) {
+            return contents;
+        }
+        
+        try(Repository repository = RepositoryPool.INSTANCE.openRepository(getLocalRepositoryFolder())) {
             ObjectId lastCommitId = repository.resolve(ref);
-
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                RevCommit commit = revWalk.parseCommit(lastCommitId);
-                RevTree tree = commit.getTree();
-
-                // now try to find a specific file
-                try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                    treeWalk.addTree(tree);
-                    treeWalk.setRecursive(true);
-                    treeWalk.setFilter(PathFilter.create(path));
-
-                    // Not found, return null
-                    if(!treeWalk.next()) {
-                        return null;
+            if(lastCommitId == null) {
+                return contents;
+            }
+            
+            // One reader for the commit, the trees and all the files
+            try(ObjectReader reader = repository.newObjectReader();
+                    RevWalk revWalk = new RevWalk(reader);
+                    TreeWalk treeWalk = new TreeWalk(reader)) {
+                
+                treeWalk.addTree(revWalk.parseCommit(lastCommitId).getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+                
+                while(treeWalk.next()) {
+                    // The filter also lets through files in a folder that has one of the paths
+                    String path = treeWalk.getPathString();
+                    if(paths.contains(path)) {
+                        contents.put(path, reader.open(treeWalk.getObjectId(0)).getBytes());
                     }
-
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-
-                    bytes = loader.getBytes();
                 }
-
-                revWalk.dispose();
             }
         }
         
-        return bytes;
+        return contents;
     }
 
     @Override
     public String getWorkingTreeFileContents(String path) throws IOException {
         String str = "";
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
-                String line;
-                while((line = in.readLine()) != null) {
-                    str += line + "\n";
-                }
+        try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                str += line + "\n";
             }
         }
         
@@ -320,7 +405,10 @@ public class ArchiRepository implements IArchiRepository {
         // Check lock file is deleted
         checkDeleteLockFile();
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        // Grafico files will change so tracked model changes are no longer valid
+        RepositoryListenerManager.INSTANCE.resetDirtyObjectTracker(locateModel());
+        
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             // Reset to master
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
@@ -336,7 +424,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean isHeadAndRemoteSame() throws IOException, GitAPIException {
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = RepositoryPool.INSTANCE.openRepository(getLocalRepositoryFolder())) {
             // Get remote branch ref
             BranchInfo currentRemoteBranch = getBranchStatus().getCurrentRemoteBranch();
             if(currentRemoteBranch == null) {
@@ -380,18 +468,51 @@ public class ArchiRepository implements IArchiRepository {
                     try {
                         // Export
                         GraficoModelExporter exporter = new GraficoModelExporter(model, getLocalRepositoryFolder());
-                        exporter.exportModel();
+                        if(ModelRepositoryPlugin.getInstance().getPreferenceStore().getBoolean(IPreferenceConstants.PREFS_EXPORT_INCREMENTAL)) {
+                            exporter.exportModelIncremental();
+                        }
+                        else {
+                            exporter.exportModel();
+                        }
                         
                         // Check lock file is deleted
                         checkDeleteLockFile();
                         
                         // Stage modified files to index - this can take a long time!
                         // This will clear any different line endings and calls to git.status() will be faster
-                        try(Git git = Git.open(getLocalRepositoryFolder())) {
-                            AddCommand addCommand = git.add();
-                            addCommand.addFilepattern(".");
-                            addCommand.setUpdate(false);
-                            addCommand.call();
+                        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
+                            Repository repository = git.getRepository();
+                            Set<String> changedPaths = exporter.getChangedPaths();
+                            
+                            // If we know which paths differed from HEAD before the export and which paths the export changed
+                            // then only those paths need to be staged and looked at by git status
+                            if(changedPaths != null && StatusPathHints.INSTANCE.getChangedPaths(repository) != null) {
+                                if(!changedPaths.isEmpty()) {
+                                    // New and modified files
+                                    AddCommand addCommand = git.add();
+                                    // Deleted files
+                                    AddCommand updateCommand = git.add();
+                                    updateCommand.setUpdate(true);
+                                    
+                                    for(String path : changedPaths) {
+                                        addCommand.addFilepattern(path);
+                                        updateCommand.addFilepattern(path);
+                                    }
+                                    
+                                    addCommand.call();
+                                    updateCommand.call();
+                                }
+                                
+                                StatusPathHints.INSTANCE.addChangedPaths(repository, changedPaths);
+                            }
+                            else {
+                                AddCommand addCommand = git.add();
+                                addCommand.addFilepattern(".");
+                                addCommand.setUpdate(false);
+                                addCommand.call();
+                                
+                                StatusPathHints.INSTANCE.clear(repository.getDirectory());
+                            }
                         }
                     }
                     catch(IOException | GitAPIException ex) {
@@ -414,7 +535,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PersonIdent getUserDetails() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             StoredConfig config = git.getRepository().getConfig();
             String name = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_NAME));
             String email = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_EMAIL));
@@ -435,7 +556,7 @@ public class ArchiRepository implements IArchiRepository {
         }
         
         // Save to local config
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(getLocalRepositoryFolder())) {
             StoredConfig config = git.getRepository().getConfig();
             
             // If global name == local name or blank then unset
@@ -548,7 +669,19 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public BranchStatus getBranchStatus() throws IOException, GitAPIException {
-        return new BranchStatus(this);
+        return BranchStatusCache.INSTANCE.getBranchStatus(this);
+    }
+    
+    /**
+     * Add new commits to the commit graph now rather than the next time the branch status is needed
+     */
+    private void updateCommitGraph(Repository repository) {
+        try {
+            CommitGraph.get(repository);
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
     }
     
     private String getLatestChecksum() throws IOException {
@@ -568,39 +701,8 @@ public class ArchiRepository implements IArchiRepository {
             return null;
         }
         
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-        }
-        catch(NoSuchAlgorithmException ex) {
-            throw new IOException("NoSuchAlgorithm Exception", ex);
-        } 
-
-        // Get file input stream for reading the file content
-        FileInputStream fis = new FileInputStream(tempFile);
-
-        // Create byte array to read data in chunks
-        byte[] byteArray = new byte[1024];
-        int bytesCount = 0;
-
-        // Read file data and update in message digest
-        while((bytesCount = fis.read(byteArray)) != -1) {
-            digest.update(byteArray, 0, bytesCount);
-        }
-
-        fis.close();
-
-        // Get the hash's bytes
-        byte[] bytes = digest.digest();
-        
-        // This bytes[] has bytes in decimal format;
-        // Convert it to hexadecimal format
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < bytes.length; i++) {
-            sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
-        }
-        
-        return sb.toString();
+        // Only hashes the file if it has changed since it was last hashed
+        return ModelChecksum.getChecksum(tempFile, new File(getLocalGitFolder(), ModelChecksum.STATE_FILE));
     }
     
     /**
@@ -7,19 +7,29 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.BranchConfig;
-import org.eclipse.jgit.lib.BranchTrackingStatus;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.RevWalkUtils;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 
 /**
  * BranchInfo
@@ -47,26 +57,28 @@ public class BranchInfo {
     
     private File repoDir; 
     
-    BranchInfo(Repository repository, Ref ref) throws IOException, GitAPIException {
+    BranchInfo(Repository repository, Ref ref) {
         repoDir = repository.getWorkTree();
-        init(repository, ref);
+        this.ref = ref.getTarget(); // Important! Get the target in case it's a symbolic Ref
     }
     
     /**
-     * Initialise this BranchInfo from the Repository and the Ref
+     * Create BranchInfos for branch refs
+     * @param repository The Repository
+     * @param refs All local and remote branch refs
+     * @return A BranchInfo for each ref
+     * @throws IOException
      */
-    private void init(Repository repository, Ref ref) throws IOException, GitAPIException {
-        this.ref = ref.getTarget(); // Important! Get the target in case it's a symbolic Ref
-        
-        hasLocalRef = getHasLocalRef(repository);
-        hasRemoteRef = getHasRemoteRef(repository);
-
-        getCommitStatus(repository);
-        
-        isRemoteDeleted = getIsRemoteDeleted(repository);
-        isCurrentBranch = getIsCurrentBranch(repository);
+    static List<BranchInfo> createBranchInfos(Repository repository, List<Ref> refs) throws IOException {
+        // Symbolic refs are the same branch as their target so only create one BranchInfo for each target
+        Map<String, BranchInfo> infos = new LinkedHashMap<>();
+        for(Ref ref : refs) {
+            infos.putIfAbsent(ref.getTarget().getName(), new BranchInfo(repository, ref));
+        }
         
-        getRevWalkStatus(repository);
+        List<BranchInfo> list = new ArrayList<>(infos.values());
+        init(repository, refs, list);
+        return list;
     }
     
     /**
@@ -75,9 +87,204 @@ public class BranchInfo {
      * @throws GitAPIException
      */
     public void refresh() throws IOException, GitAPIException {
-        try(Git git = Git.open(repoDir)) {
-            Ref ref = git.getRepository().findRef(getFullName());  // Ref will be a different object with a new Repository instance so renew it
-            init(git.getRepository(), ref);
+        try(Git git = RepositoryPool.INSTANCE.openGit(repoDir)) {
+            Repository repository = git.getRepository();
+            ref = repository.findRef(getFullName()).getTarget();  // Ref will be a different object with a new Repository instance so renew it
+            List<Ref> refs = git.branchList().setListMode(ListMode.ALL).call();
+            init(repository, refs, Collections.singletonList(this));
+        }
+    }
+    
+    /**
+     * Initialise BranchInfos from the Repository using one RevWalk for all of them
+     * 
+     * @param repository The Repository
+     * @param refs All local and remote branch refs
+     * @param infos The BranchInfos to initialise
+     */
+    private static void init(Repository repository, List<Ref> refs, List<BranchInfo> infos) throws IOException {
+        // Names of all refs and their targets
+        Set<String> refNames = new HashSet<>();
+        for(Ref ref : refs) {
+            refNames.add(ref.getName());
+            refNames.add(ref.getTarget().getName());
+        }
+        
+        String head = repository.getFullBranch();
+        Config config = repository.getConfig();
+        
+        for(BranchInfo info : infos) {
+            info.hasLocalRef = refNames.contains(info.getLocalBranchNameFor());
+            info.hasRemoteRef = refNames.contains(info.getRemoteBranchNameFor());
+            info.isRemoteDeleted = info.getIsRemoteDeleted(config);
+            info.isCurrentBranch = info.getFullName().equals(head);
+        }
+        
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            // Get the latest commit for each branch and the branches at each commit
+            Map<RevCommit, Set<String>> tips = new HashMap<>();
+            
+            for(Ref ref : refs) {
+                RevCommit commit = revWalk.parseCommit(ref.getTarget().getObjectId());
+                tips.computeIfAbsent(commit, c -> new HashSet<>()).add(ref.getTarget().getName());
+            }
+            
+            for(BranchInfo info : infos) {
+                info.latestCommit = revWalk.parseCommit(info.ref.getObjectId());
+            }
+            
+            // The latest commits have been parsed with their message so don't keep the message of other commits
+            revWalk.setRetainBody(false);
+            
+            // Use the commit graph if we can, else walk the commits
+            CommitGraph graph = null;
+            try {
+                graph = CommitGraph.get(repository);
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+            
+            getMergedStatus(revWalk, graph, tips, infos);
+            getCommitStatus(repository, revWalk, graph, config, infos);
+            
+            revWalk.dispose();
+        }
+    }
+    
+    /**
+     * A branch is merged if its latest commit is the latest commit of, or reachable from, another branch.
+     * 
+     * A commit that is the parent of another commit can't be reachable from its own descendants,
+     * so if a branch's latest commit is the parent of any commit reachable from all the branches' latest commits
+     * then it is reachable from another branch. This means that one walk from all of the latest commits is enough for all branches.
+     */
+    private static void getMergedStatus(RevWalk revWalk, CommitGraph graph, Map<RevCommit, Set<String>> tips, List<BranchInfo> infos) throws IOException {
+        // Latest commits of branches that are not yet known to be merged
+        Set<RevCommit> unmerged = new HashSet<>();
+        
+        for(BranchInfo info : infos) {
+            // If this is the master branch isMerged is true
+            // Or if another branch has the same latest commit
+            info.isMerged = info.isMasterBranch() || tips.get(info.latestCommit).size() > 1;
+            if(!info.isMerged) {
+                unmerged.add(info.latestCommit);
+            }
+        }
+        
+        if(unmerged.isEmpty()) {
+            return;
+        }
+        
+        if(graph != null && getMergedStatus(graph, tips.keySet(), unmerged, infos)) {
+            return;
+        }
+        
+        RevFlag tipFlag = revWalk.newFlag("tip"); //$NON-NLS-1$
+        
+        for(RevCommit tip : tips.keySet()) {
+            tip.add(tipFlag);
+            revWalk.markStart(tip);
+        }
+        
+        // Stop when all branches are known to be merged, else this walks all commits
+        RevCommit commit;
+        while(!unmerged.isEmpty() && (commit = revWalk.next()) != null) {
+            for(RevCommit parent : commit.getParents()) {
+                if(parent.has(tipFlag)) {
+                    unmerged.remove(parent);
+                }
+            }
+        }
+        
+        for(BranchInfo info : infos) {
+            if(!info.isMerged) {
+                info.isMerged = !unmerged.contains(info.latestCommit);
+            }
+        }
+        
+        revWalk.disposeFlag(tipFlag);
+        revWalk.reset();
+    }
+    
+    /**
+     * Get the merged status from the commit graph
+     * @return false if a commit is not in the commit graph
+     */
+    private static boolean getMergedStatus(CommitGraph graph, Collection<RevCommit> tips, Set<RevCommit> unmerged, List<BranchInfo> infos) {
+        List<Integer> starts = new ArrayList<>();
+        for(RevCommit tip : tips) {
+            int index = graph.indexOf(tip);
+            if(index == -1) {
+                return false;
+            }
+            starts.add(index);
+        }
+        
+        Set<Integer> targets = new HashSet<>();
+        for(RevCommit commit : unmerged) {
+            targets.add(graph.indexOf(commit));
+        }
+        
+        graph.removeReachable(starts, targets);
+        
+        for(BranchInfo info : infos) {
+            if(!info.isMerged) {
+                info.isMerged = !targets.contains(graph.indexOf(info.latestCommit));
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Get the number of commits ahead of and behind the tracked branch in the same way as BranchTrackingStatus
+     * but with the same RevWalk for all branches. A remote branch has the same status as the local branch of the same name.
+     */
+    private static void getCommitStatus(Repository repository, RevWalk revWalk, CommitGraph graph, Config config, List<BranchInfo> infos) throws IOException {
+        // Short name -> {hasUnpushedCommits, hasRemoteCommits}
+        Map<String, boolean[]> statuses = new HashMap<>();
+        
+        for(BranchInfo info : infos) {
+            boolean[] status = statuses.get(info.getShortName());
+            
+            if(status == null) {
+                status = new boolean[2];
+                statuses.put(info.getShortName(), status);
+                
+                String trackingBranch = new BranchConfig(config, info.getShortName()).getTrackingBranch();
+                Ref trackingRef = trackingBranch != null ? repository.exactRef(trackingBranch) : null;
+                Ref localRef = trackingRef != null ? repository.exactRef(LOCAL_PREFIX + info.getShortName()) : null;
+                
+                int localIndex = localRef != null && graph != null ? graph.indexOf(localRef.getObjectId()) : -1;
+                int trackingIndex = localIndex != -1 ? graph.indexOf(trackingRef.getObjectId()) : -1;
+                
+                if(trackingIndex != -1) {
+                    int[] counts = graph.getAheadBehind(localIndex, trackingIndex);
+                    status[0] = counts[0] > 0;
+                    status[1] = counts[1] > 0;
+                }
+                else if(localRef != null) {
+                    RevCommit localCommit = revWalk.parseCommit(localRef.getObjectId());
+                    RevCommit trackingCommit = revWalk.parseCommit(trackingRef.getObjectId());
+                    
+                    revWalk.setRevFilter(RevFilter.MERGE_BASE);
+                    revWalk.markStart(localCommit);
+                    revWalk.markStart(trackingCommit);
+                    RevCommit mergeBase = revWalk.next();
+                    
+                    revWalk.reset();
+                    revWalk.setRevFilter(RevFilter.ALL);
+                    
+                    status[0] = RevWalkUtils.count(revWalk, localCommit, mergeBase) > 0;
+                    status[1] = RevWalkUtils.count(revWalk, trackingCommit, mergeBase) > 0;
+                    
+                    revWalk.reset();
+                }
+            }
+            
+            info.hasUnpushedCommits = status[0];
+            info.hasRemoteCommits = status[1];
         }
     }
     
@@ -148,40 +355,28 @@ public class BranchInfo {
         return IGraficoConstants.MASTER.equals(getShortName());
     }
     
-    private boolean getHasLocalRef(Repository repository) throws IOException {
-        return repository.findRef(getLocalBranchNameFor()) != null;
-    }
-
-    private boolean getHasRemoteRef(Repository repository) throws IOException {
-        return repository.findRef(getRemoteBranchNameFor()) != null;
-    }
-
     /*
      * Figure out whether the remote branch has been deleted
      * 1. We have a local branch ref
      * 2. We are tracking it
      * 3. But it does not have a remote branch ref
      */
-    private boolean getIsRemoteDeleted(Repository repository) throws IOException {
+    private boolean getIsRemoteDeleted(Config config) {
         if(isRemote()) {
             return false;
         }
         
         // Is it being tracked?
-        BranchConfig branchConfig = new BranchConfig(repository.getConfig(), getShortName());
+        BranchConfig branchConfig = new BranchConfig(config, getShortName());
         boolean isBeingTracked = branchConfig.getRemoteTrackingBranch() != null;
         
         // Does it have a remote ref?
-        boolean hasNoRemoteBranchFor = repository.findRef(getRemoteBranchNameFor()) == null;
+        boolean hasNoRemoteBranchFor = !hasRemoteRef;
         
         // Is being tracked but no remote ref
         return isBeingTracked && hasNoRemoteBranchFor;
     }
 
-    private boolean getIsCurrentBranch(Repository repository) throws IOException {
-        return getFullName().equals(repository.getFullBranch());
-    }
-    
     private String getShortName(String branchName) {
         if(branchName.startsWith(LOCAL_PREFIX)) {
             return branchName.substring(LOCAL_PREFIX.length());
@@ -194,56 +389,6 @@ public class BranchInfo {
         return branchName;
     }
     
-    /**
-     * Get status of this branch from a RevWalk
-     * This will get the latest commit for this branch
-     * and whether this branch is merged into another
-     */
-    private void getRevWalkStatus(Repository repository) throws GitAPIException, IOException {
-        try(RevWalk revWalk = new RevWalk(repository)) {
-            // Get the latest commit for this branch
-            latestCommit = revWalk.parseCommit(ref.getObjectId());
-            
-            // If this is the master branch isMerged is true
-            if(isMasterBranch()) {
-                isMerged = true;
-            }
-            // Else this is another branch
-            else {
-                // Get all other branch refs
-            	// Setting ListMode to REMOTE lists only remote branches while ALL lists remote and local branches
-                List<Ref> otherRefs = Git.wrap(repository).branchList().setListMode(ListMode.ALL).call();
-                otherRefs.remove(ref); // remove this one
-                
-                // In-built method
-                List<Ref> refs = RevWalkUtils.findBranchesReachableFrom(latestCommit, revWalk, otherRefs);
-                isMerged = !refs.isEmpty(); // If there are other reachable branches then this is merged
-                
-                /* Another method to do this...
-                for(Ref otherRef : otherRefs) {
-                    // Get the other branch's latest commit
-                    RevCommit otherHead = revWalk.parseCommit(otherRef.getObjectId());
-
-                    // If this head is an ancestor of, or the same as, the other head then this is merged
-                    if(revWalk.isMergedInto(latestCommit, otherHead)) {
-                        isMerged = true;
-                        break;
-                    }
-                } */
-            }
-            
-            revWalk.dispose();
-        }
-    }
-    
-    private void getCommitStatus(Repository repository) throws IOException {
-        BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(repository, getShortName());
-        if(trackingStatus != null) {
-            hasUnpushedCommits = trackingStatus.getAheadCount() > 0;
-            hasRemoteCommits = trackingStatus.getBehindCount() > 0;
-        }
-    }
-
     @Override
     public boolean equals(Object obj) {
         return (obj instanceof BranchInfo) &&
@@ -31,12 +31,12 @@ public class BranchStatus {
     private BranchInfo currentRemoteBranch;
     
     BranchStatus(IArchiRepository archiRepo) throws IOException, GitAPIException {
-        try(Git git = Git.open(archiRepo.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(archiRepo.getLocalRepositoryFolder())) {
             Repository repository = git.getRepository();
 
             // Get all known branches
-            for(Ref ref : git.branchList().setListMode(ListMode.ALL).call()) {
-                BranchInfo info = new BranchInfo(repository, ref);
+            List<Ref> refs = git.branchList().setListMode(ListMode.ALL).call();
+            for(BranchInfo info : BranchInfo.createBranchInfos(repository, refs)) {
                 infos.put(info.getFullName(), info);
             }
             
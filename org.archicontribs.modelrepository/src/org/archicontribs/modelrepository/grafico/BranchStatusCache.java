@@ -0,0 +1,151 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * In-memory cache of the BranchStatus of each repo
+ * 
+ * A cached BranchStatus is returned while the repo's refs, HEAD and config are the same as when it was created.
+ * These are compared by taking a snapshot of the contents of HEAD and the loose refs and the size and modification time
+ * of the packed-refs and config files. An entry is also removed when a listener event says that branches or history have changed.
+ * 
+ * @author Phillip Beauvoir
+ */
+class BranchStatusCache implements IRepositoryListener {
+    
+    static final BranchStatusCache INSTANCE = new BranchStatusCache();
+    
+    /**
+     * A file modified within this time of its snapshot could be modified again without its size or modification time changing
+     */
+    private static final long RACY_TIME = 3000;
+    
+    private static class Entry {
+        String snapshot;
+        BranchStatus status;
+        
+        Entry(String snapshot, BranchStatus status) {
+            this.snapshot = snapshot;
+            this.status = status;
+        }
+    }
+    
+    /**
+     * .git folder -> Entry
+     */
+    private Map<File, Entry> fCache = new ConcurrentHashMap<>();
+    
+    private BranchStatusCache() {
+        RepositoryListenerManager.INSTANCE.addListener(this);
+    }
+    
+    /**
+     * @param repository The repository
+     * @return The cached BranchStatus if the repo's refs are unchanged, else a new BranchStatus
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    BranchStatus getBranchStatus(IArchiRepository repository) throws IOException, GitAPIException {
+        File gitFolder = repository.getLocalGitFolder().getAbsoluteFile();
+        
+        // Take the snapshot before creating the BranchStatus so that a ref changed while it's created changes the next snapshot
+        String snapshot = getSnapshot(gitFolder);
+        
+        Entry entry = fCache.get(gitFolder);
+        if(entry != null && snapshot != null && snapshot.equals(entry.snapshot)) {
+            return entry.status;
+        }
+        
+        BranchStatus status = new BranchStatus(repository);
+        
+        if(snapshot != null) {
+            fCache.put(gitFolder, new Entry(snapshot, status));
+        }
+        else {
+            fCache.remove(gitFolder);
+        }
+        
+        return status;
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        if(IRepositoryListener.BRANCHES_CHANGED.equals(eventName)
+                || IRepositoryListener.HISTORY_CHANGED.equals(eventName)
+                || IRepositoryListener.REPOSITORY_DELETED.equals(eventName)) {
+            fCache.remove(repository.getLocalGitFolder().getAbsoluteFile());
+        }
+    }
+    
+    /**
+     * @return A snapshot of the repo's refs, or null if a file was modified too recently to be compared by its size and modification time
+     */
+    private String getSnapshot(File gitFolder) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        
+        // HEAD and loose refs are small so compare their contents
+        appendContents(sb, new File(gitFolder, Constants.HEAD).toPath());
+        
+        for(String refsFolder : new String[] { Constants.R_HEADS, Constants.R_REMOTES }) {
+            Path folder = new File(gitFolder, refsFolder).toPath();
+            if(Files.isDirectory(folder)) {
+                List<Path> files;
+                try(Stream<Path> stream = Files.walk(folder)) {
+                    files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                
+                for(Path file : files) {
+                    sb.append(gitFolder.toPath().relativize(file)).append('\n');
+                    appendContents(sb, file);
+                }
+            }
+        }
+        
+        // packed-refs can be large and config is not a ref so compare their size and modification time
+        for(String fileName : new String[] { Constants.PACKED_REFS, Constants.CONFIG }) {
+            Path file = new File(gitFolder, fileName).toPath();
+            if(Files.isRegularFile(file)) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                if(System.currentTimeMillis() - lastModified <= RACY_TIME) {
+                    return null;
+                }
+                sb.append(fileName).append('\n').append(attributes.size()).append('\n').append(lastModified).append('\n');
+            }
+        }
+        
+        return sb.toString();
+    }
+    
+    private void appendContents(StringBuilder sb, Path file) throws IOException {
+        // A ref can be deleted while the snapshot is taken
+        if(Files.isRegularFile(file)) {
+            try {
+                sb.append(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).append('\n');
+            }
+            catch(IOException ex) {
+                if(Files.exists(file)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Commit graph of a repo's branches, kept in a file in the .git folder
+ * 
+ * Each commit has the indexes of its parents and a generation number, which is one more than the largest generation number of its parents.
+ * A commit can only be reachable from a commit with a larger generation number, so walks can stop at a generation number
+ * instead of walking the rest of the history. The commits don't have to be parsed from the object database to be walked.
+ * 
+ * Commits of new branch heads are added when the graph is got, and the graph is saved if commits were added.
+ * Commits are never removed, so commits of deleted branches stay in the graph until the file is deleted.
+ * 
+ * @author Phillip Beauvoir
+ */
+class CommitGraph {
+    
+    private static final int MAGIC = 0x41434731; // "ACG1"
+    
+    /**
+     * .git folder -> CommitGraph
+     */
+    private static final Map<File, SoftReference<CommitGraph>> GRAPHS = new ConcurrentHashMap<>();
+    
+    private File fFile;
+    
+    /**
+     * Commit id -> index
+     */
+    private Map<ObjectId, Integer> fIndexes = new HashMap<>();
+    
+    private ObjectId[] fIds = new ObjectId[1024];
+    private int[] fGenerations = new int[1024];
+    private int[][] fParents = new int[1024][];
+    private int fCount;
+    
+    /**
+     * Get the commit graph of a repo, adding the commits of branch heads that are not in it
+     * 
+     * @param repository The Repository
+     * @return The commit graph
+     * @throws IOException
+     */
+    static CommitGraph get(Repository repository) throws IOException {
+        File gitFolder = repository.getDirectory().getAbsoluteFile();
+        
+        SoftReference<CommitGraph> ref = GRAPHS.get(gitFolder);
+        CommitGraph graph = ref != null ? ref.get() : null;
+        
+        if(graph == null) {
+            graph = new CommitGraph(new File(gitFolder, IGraficoConstants.COMMIT_GRAPH_FILE));
+            GRAPHS.put(gitFolder, new SoftReference<>(graph));
+        }
+        
+        graph.update(repository);
+        
+        return graph;
+    }
+    
+    private CommitGraph(File file) {
+        fFile = file;
+        
+        if(file.isFile()) {
+            try {
+                read();
+            }
+            // If the file can't be read the graph is created again
+            catch(IOException ex) {
+                clear();
+            }
+        }
+    }
+    
+    /**
+     * @return The index of a commit, or -1 if it is not in the graph
+     */
+    synchronized int indexOf(AnyObjectId id) {
+        Integer index = fIndexes.get(id);
+        return index != null ? index : -1;
+    }
+    
+    /**
+     * Find which of a set of commits are reachable from any other commit in another set
+     * 
+     * @param starts The commits to walk from
+     * @param targets The commits to find. This is changed to the commits that are not reachable from a different commit in starts.
+     */
+    synchronized void removeReachable(Collection<Integer> starts, Set<Integer> targets) {
+        if(targets.isEmpty()) {
+            return;
+        }
+        
+        // A commit that has a target as a parent can't be reachable from that target, so it's reachable from a different start commit
+        int minGeneration = Integer.MAX_VALUE;
+        for(int target : targets) {
+            minGeneration = Math.min(minGeneration, fGenerations[target]);
+        }
+        
+        boolean[] seen = new boolean[fCount];
+        Deque<Integer> stack = new ArrayDeque<>();
+        
+        for(int start : starts) {
+            if(!seen[start]) {
+                seen[start] = true;
+                stack.push(start);
+            }
+        }
+        
+        while(!stack.isEmpty() && !targets.isEmpty()) {
+            int commit = stack.pop();
+            
+            // Parents of this commit have a smaller generation number than any target
+            if(fGenerations[commit] <= minGeneration) {
+                continue;
+            }
+            
+            for(int parent : fParents[commit]) {
+                targets.remove(parent);
+                
+                if(!seen[parent]) {
+                    seen[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Count the commits that are reachable from one commit and not from the other
+     * 
+     * @return The number of commits reachable from local and not from tracking, and the number reachable from tracking and not from local
+     */
+    synchronized int[] getAheadBehind(int local, int tracking) {
+        int[] counts = new int[2];
+        
+        if(local == tracking) {
+            return counts;
+        }
+        
+        // Commit index -> flags. 1 = reachable from local, 2 = reachable from tracking
+        Map<Integer, Integer> flags = new HashMap<>();
+        
+        // Walk in generation order so that all of a commit's flags are set before it is taken from the queue
+        PriorityQueue<Integer> queue = new PriorityQueue<>((c1, c2) -> Integer.compare(fGenerations[c2], fGenerations[c1]));
+        
+        flags.put(local, 1);
+        flags.put(tracking, 2);
+        queue.add(local);
+        queue.add(tracking);
+        
+        // Number of queued commits not reachable from both. When there are none the remaining commits are reachable from both.
+        int notCommon = 2;
+        
+        while(notCommon > 0) {
+            int commit = queue.poll();
+            int flag = flags.get(commit);
+            
+            if(flag != 3) {
+                notCommon--;
+                counts[flag - 1]++;
+            }
+            
+            for(int parent : fParents[commit]) {
+                Integer oldFlag = flags.get(parent);
+                
+                if(oldFlag == null) {
+                    flags.put(parent, flag);
+                    queue.add(parent);
+                    if(flag != 3) {
+                        notCommon++;
+                    }
+                }
+                else if((oldFlag | flag) != oldFlag) {
+                    flags.put(parent, oldFlag | flag);
+                    notCommon--; // It's queued and now reachable from both
+                }
+            }
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * Add the commits of branch heads that are not in the graph and save it if any were added
+     */
+    private synchronized void update(Repository repository) throws IOException {
+        int count = fCount;
+        
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.setRetainBody(false);
+            
+            for(Ref ref : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS, Constants.R_REMOTES)) {
+                ObjectId id = ref.getTarget().getObjectId();
+                if(id != null && indexOf(id) == -1) {
+                    try {
+                        add(revWalk, revWalk.parseCommit(id));
+                    }
+                    // Not a commit
+                    catch(IncorrectObjectTypeException ex) {
+                    }
+                }
+            }
+            
+            revWalk.dispose();
+        }
+        
+        if(fCount != count) {
+            write();
+        }
+    }
+    
+    /**
+     * Add a commit and its ancestors that are not in the graph. Parents are added before their children.
+     */
+    private void add(RevWalk revWalk, RevCommit head) throws IOException {
+        Deque<RevCommit> stack = new ArrayDeque<>();
+        stack.push(head);
+        
+        while(!stack.isEmpty()) {
+            RevCommit commit = stack.peek();
+            
+            if(indexOf(commit) != -1) {
+                stack.pop();
+                continue;
+            }
+            
+            boolean hasParentsInGraph = true;
+            
+            for(RevCommit parent : commit.getParents()) {
+                if(indexOf(parent) == -1) {
+                    revWalk.parseHeaders(parent);
+                    stack.push(parent);
+                    hasParentsInGraph = false;
+                }
+            }
+            
+            if(hasParentsInGraph) {
+                stack.pop();
+                
+                int[] parents = new int[commit.getParentCount()];
+                for(int i = 0; i < parents.length; i++) {
+                    parents[i] = indexOf(commit.getParent(i));
+                }
+                
+                addCommit(commit.copy(), parents);
+            }
+        }
+    }
+    
+    private void addCommit(ObjectId id, int[] parents) {
+        if(fCount == fIds.length) {
+            int size = fCount * 2;
+            fIds = Arrays.copyOf(fIds, size);
+            fGenerations = Arrays.copyOf(fGenerations, size);
+            fParents = Arrays.copyOf(fParents, size);
+        }
+        
+        int generation = 1;
+        for(int parent : parents) {
+            generation = Math.max(generation, fGenerations[parent] + 1);
+        }
+        
+        fIds[fCount] = id;
+        fGenerations[fCount] = generation;
+        fParents[fCount] = parents;
+        fIndexes.put(id, fCount);
+        fCount++;
+    }
+    
+    private void clear() {
+        fIndexes.clear();
+        fIds = new ObjectId[1024];
+        fGenerations = new int[1024];
+        fParents = new int[1024][];
+        fCount = 0;
+    }
+    
+    private void read() throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fFile.toPath())))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a commit graph file"); //$NON-NLS-1$
+            }
+            
+            int count = in.readInt();
+            byte[] idBytes = new byte[Constants.OBJECT_ID_LENGTH];
+            
+            for(int i = 0; i < count; i++) {
+                in.readFully(idBytes);
+                
+                int[] parents = new int[in.readInt()];
+                for(int j = 0; j < parents.length; j++) {
+                    parents[j] = in.readInt();
+                    if(parents[j] < 0 || parents[j] >= i) {
+                        throw new IOException("Bad parent index"); //$NON-NLS-1$
+                    }
+                }
+                
+                addCommit(ObjectId.fromRaw(idBytes), parents);
+            }
+        }
+    }
+    
+    private void write() throws IOException {
+        // Write to a temp file first so that a partly written graph is never read
+        File tmpFile = new File(fFile.getPath() + ".tmp"); //$NON-NLS-1$
+        
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(fCount);
+            
+            byte[] idBytes = new byte[Constants.OBJECT_ID_LENGTH];
+            
+            for(int i = 0; i < fCount; i++) {
+                fIds[i].copyRawTo(idBytes, 0);
+                out.write(idBytes);
+                
+                out.writeInt(fParents[i].length);
+                for(int parent : fParents[i]) {
+                    out.writeInt(parent);
+                }
+            }
+        }
+        catch(IOException ex) {
+            Files.deleteIfExists(tmpFile.toPath());
+            throw ex;
+        }
+        
+        Files.move(tmpFile.toPath(), fFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
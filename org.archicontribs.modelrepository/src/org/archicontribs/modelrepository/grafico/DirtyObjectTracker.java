@@ -0,0 +1,203 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IDiagramModelImageProvider;
+import com.archimatetool.model.IFolder;
+
+/**
+ * Tracks the objects in a model in a local repository that have changed since the model was last exported to Grafico files.
+ * 
+ * Objects are those that are persisted in their own Grafico file - the model, folders, and elements and diagrams in folders.
+ * Changes are taken from the model's ECore notifications, see {@link RepositoryListenerManager}.
+ * 
+ * @author Phillip Beauvoir
+ */
+class DirtyObjectTracker {
+    
+    /**
+     * Objects that have changed, moved, been added or been deleted since the last export
+     */
+    private Set<EObject> fDirtyObjects = new HashSet<>();
+    
+    /**
+     * Image paths may have been added or removed
+     */
+    private boolean fImagesChanged;
+    
+    /**
+     * Object -> file written at the last export, or null if the model has not been exported since it was opened
+     */
+    private Map<EObject, File> fExportedFiles;
+    
+    /**
+     * Record the object(s) that are changed by a notification
+     */
+    synchronized void notifyChanged(Notification msg) {
+        if(msg.isTouch() || !(msg.getNotifier() instanceof EObject)) {
+            return;
+        }
+        
+        Object feature = msg.getFeature();
+        
+        if(feature == IArchimatePackage.Literals.DIAGRAM_MODEL_IMAGE_PROVIDER__IMAGE_PATH) {
+            fImagesChanged = true;
+        }
+        
+        // Objects added to or removed from the model or a folder change their files, but not the parent's folder.xml file
+        if(feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+            if(msg.getEventType() != Notification.MOVE) {
+                for(EObject eObject : getValues(msg)) {
+                    addSubtree(eObject);
+                    checkImages(eObject);
+                }
+            }
+            return;
+        }
+        
+        // Other child objects added or removed could have images
+        if(feature instanceof EReference && ((EReference)feature).isContainment()) {
+            for(EObject eObject : getValues(msg)) {
+                checkImages(eObject);
+            }
+        }
+        
+        EObject fileObject = GraficoModelExporter.getFileObject((EObject)msg.getNotifier());
+        if(fileObject != null) {
+            fDirtyObjects.add(fileObject);
+        }
+    }
+    
+    /**
+     * @return true if the model has been exported since it was opened and changes since then are known
+     */
+    synchronized boolean hasExportedFiles() {
+        return fExportedFiles != null;
+    }
+    
+    /**
+     * @return Object -> file written at the last export, or null
+     */
+    synchronized Map<EObject, File> getExportedFiles() {
+        return fExportedFiles;
+    }
+    
+    /**
+     * Set the files written at an export of all objects
+     */
+    synchronized void setExportedFiles(Map<EObject, File> exportedFiles) {
+        fExportedFiles = new HashMap<>(exportedFiles);
+    }
+    
+    /**
+     * @return The objects that have changed since the last export and clear them
+     */
+    synchronized Set<EObject> takeDirtyObjects() {
+        Set<EObject> dirtyObjects = fDirtyObjects;
+        fDirtyObjects = new HashSet<>();
+        return dirtyObjects;
+    }
+    
+    /**
+     * @return true if image paths may have been added or removed since the last export and clear the flag
+     */
+    synchronized boolean takeImagesChanged() {
+        boolean imagesChanged = fImagesChanged;
+        fImagesChanged = false;
+        return imagesChanged;
+    }
+    
+    /**
+     * Forget the last export so that the next export is of all objects
+     */
+    synchronized void reset() {
+        fExportedFiles = null;
+        fDirtyObjects.clear();
+        fImagesChanged = false;
+    }
+    
+    /**
+     * Add an object and, if it is a folder, its child folders and elements
+     */
+    private void addSubtree(EObject eObject) {
+        fDirtyObjects.add(eObject);
+        
+        if(eObject instanceof IFolder) {
+            for(TreeIterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+                EObject child = iter.next();
+                fDirtyObjects.add(child);
+                
+                // Element or diagram contents are in the same file
+                if(!(child instanceof IFolder)) {
+                    iter.prune();
+                }
+            }
+        }
+    }
+    
+    /**
+     * If an added or removed object has image paths then images have changed
+     */
+    private void checkImages(EObject eObject) {
+        if(fImagesChanged) {
+            return;
+        }
+        
+        if(hasImagePath(eObject)) {
+            fImagesChanged = true;
+            return;
+        }
+        
+        for(Iterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+            if(hasImagePath(iter.next())) {
+                fImagesChanged = true;
+                return;
+            }
+        }
+    }
+    
+    private boolean hasImagePath(EObject eObject) {
+        return eObject instanceof IDiagramModelImageProvider && ((IDiagramModelImageProvider)eObject).getImagePath() != null;
+    }
+    
+    /**
+     * @return The objects added or removed (or set) by a notification
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<EObject> getValues(Notification msg) {
+        Set<EObject> values = new HashSet<>();
+        
+        for(Object value : new Object[] { msg.getOldValue(), msg.getNewValue() }) {
+            if(value instanceof EObject) {
+                values.add((EObject)value);
+            }
+            else if(value instanceof Collection) {
+                for(Object o : (Collection<Object>)value) {
+                    if(o instanceof EObject) {
+                        values.add((EObject)o);
+                    }
+                }
+            }
+        }
+        
+        return values.isEmpty() ? Collections.emptySet() : values;
+    }
+}
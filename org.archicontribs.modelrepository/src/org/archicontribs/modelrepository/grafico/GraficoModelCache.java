@@ -0,0 +1,227 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IDiagramModelImageProvider;
+import com.archimatetool.model.ModelVersion;
+import com.archimatetool.model.util.ArchimateResourceFactory;
+
+/**
+ * Cache of models imported from commit trees, kept in the repo's .git folder
+ * 
+ * Each entry is a zip file named after the tree's ObjectId and the versions of the model and of this plug-in.
+ * It contains the model in the .archimate format and the model's images.
+ * The versions are in the name because the model's compatibility fixes are run when a tree is imported and not when an entry is loaded,
+ * so entries written before an upgrade are not used.
+ * Loading an entry is as quick as opening an .archimate file, which is much quicker than importing the tree's Grafico files.
+ * The least recently used entries are deleted when the cache is larger than the size set in preferences.
+ * 
+ * @author Phillip Beauvoir
+ */
+public class GraficoModelCache {
+    
+    private static final String CACHE_FILE_EXTENSION = ".zip"; //$NON-NLS-1$
+    private static final String MODEL_ENTRY = "model.archimate"; //$NON-NLS-1$
+    private static final String IMAGES_ENTRY_PREFIX = IGraficoConstants.IMAGES_FOLDER + "/"; //$NON-NLS-1$
+    
+    /**
+     * The versions of the model and of this plug-in that an entry was written with
+     */
+    private static final String VERSION = ModelVersion.VERSION + "_" + ModelRepositoryPlugin.getInstance().getBundle().getVersion(); //$NON-NLS-1$
+    
+    private File fCacheFolder;
+    
+    public GraficoModelCache(IArchiRepository repository) {
+        fCacheFolder = new File(repository.getLocalGitFolder(), IGraficoConstants.MODEL_CACHE_FOLDER);
+    }
+    
+    /**
+     * Get the model in a commit tree from the cache, or import it from the tree and add it to the cache
+     * 
+     * @param repository The repository. This must remain open until the model is loaded
+     * @param tree The commit's tree
+     * @return The model, or null if the tree has no model
+     * @throws IOException
+     */
+    public IArchimateModel getModel(Repository repository, RevTree tree) throws IOException {
+        long maxSize = ModelRepositoryPlugin.getInstance().getPreferenceStore().getInt(IPreferenceConstants.PREFS_MODEL_CACHE_SIZE) * 1024L * 1024L;
+        
+        File file = new File(fCacheFolder, tree.getName() + "_" + VERSION + CACHE_FILE_EXTENSION); //$NON-NLS-1$
+        
+        if(maxSize > 0 && file.isFile()) {
+            try {
+                IArchimateModel model = readModel(file);
+                
+                // Most recently used
+                file.setLastModified(System.currentTimeMillis());
+                
+                return model;
+            }
+            // Don't fail because of the cache, import the tree instead
+            catch(IOException ex) {
+                ModelRepositoryPlugin.getInstance().getLog().error("Could not read model cache file: " + file, ex); //$NON-NLS-1$
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        
+        GraficoModelImporter importer = new GraficoModelImporter(repository, tree);
+        IArchimateModel model = importer.importAsModel();
+        
+        // Only cache a complete model
+        if(maxSize > 0 && model != null && importer.getUnresolvedObjects() == null) {
+            try {
+                writeModel(model, file);
+                evict(maxSize);
+            }
+            // Don't fail because of the cache
+            catch(IOException ex) {
+                ModelRepositoryPlugin.getInstance().getLog().error("Could not write model cache file: " + file, ex); //$NON-NLS-1$
+            }
+        }
+        
+        return model;
+    }
+    
+    private IArchimateModel readModel(File file) throws IOException {
+        try(ZipFile zipFile = new ZipFile(file)) {
+            ZipEntry modelEntry = zipFile.getEntry(MODEL_ENTRY);
+            if(modelEntry == null) {
+                throw new IOException("No model in cache file"); //$NON-NLS-1$
+            }
+            
+            Resource resource = ArchimateResourceFactory.createNewResource(file);
+            try(InputStream in = zipFile.getInputStream(modelEntry)) {
+                resource.load(in, null);
+            }
+            
+            EObject eObject = resource.getContents().isEmpty() ? null : resource.getContents().get(0);
+            if(!(eObject instanceof IArchimateModel)) {
+                throw new IOException("No model in cache file"); //$NON-NLS-1$
+            }
+            
+            IArchimateModel model = (IArchimateModel)eObject;
+            
+            // Remove the model from its Resource as the importer does
+            resource.getContents().remove(model);
+            
+            // Add Archive Manager and CommandStack
+            IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+            model.setAdapter(IArchiveManager.class, archiveManager);
+            model.setAdapter(CommandStack.class, new CommandStack());
+            
+            // Load images
+            for(Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if(entry.getName().startsWith(IMAGES_ENTRY_PREFIX)) {
+                    try(InputStream in = zipFile.getInputStream(entry)) {
+                        archiveManager.addByteContentEntry(entry.getName(), in.readAllBytes());
+                    }
+                }
+            }
+            
+            return model;
+        }
+    }
+    
+    private void writeModel(IArchimateModel model, File file) throws IOException {
+        fCacheFolder.mkdirs();
+        
+        // Write to a temp file first so that a partly written entry is never read
+        // Each write has its own temp file as the same tree can be extracted more than once at the same time
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", fCacheFolder); //$NON-NLS-1$
+        
+        try(ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.putNextEntry(new ZipEntry(MODEL_ENTRY));
+            
+            // Add the model to a Resource to save it and then remove it as the importer does
+            Resource resource = ArchimateResourceFactory.createNewResource(file);
+            resource.getContents().add(model);
+            try {
+                resource.save(out, null);
+            }
+            finally {
+                resource.getContents().remove(model);
+            }
+            
+            out.closeEntry();
+            
+            // Images
+            IArchiveManager archiveManager = (IArchiveManager)model.getAdapter(IArchiveManager.class);
+            Set<String> saved = new HashSet<>();
+            
+            for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+                EObject eObject = iter.next();
+                if(eObject instanceof IDiagramModelImageProvider) {
+                    String imagePath = ((IDiagramModelImageProvider)eObject).getImagePath();
+                    if(imagePath != null && saved.add(imagePath)) {
+                        byte[] bytes = archiveManager.getBytesFromEntry(imagePath);
+                        if(bytes != null) {
+                            out.putNextEntry(new ZipEntry(imagePath));
+                            out.write(bytes);
+                            out.closeEntry();
+                        }
+                    }
+                }
+            }
+        }
+        catch(IOException ex) {
+            Files.deleteIfExists(tmpFile.toPath());
+            throw ex;
+        }
+        
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Delete the least recently used entries until the cache is no larger than maxSize
+     */
+    private void evict(long maxSize) throws IOException {
+        File[] files = fCacheFolder.listFiles((dir, name) -> name.endsWith(CACHE_FILE_EXTENSION));
+        if(files == null) {
+            return;
+        }
+        
+        long size = 0;
+        for(File file : files) {
+            size += file.length();
+        }
+        
+        // Oldest first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        
+        for(int i = 0; i < files.length && size > maxSize; i++) {
+            size -= files[i].length();
+            Files.deleteIfExists(files[i].toPath());
+        }
+    }
+}
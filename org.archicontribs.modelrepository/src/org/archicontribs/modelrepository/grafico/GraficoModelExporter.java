@@ -10,10 +10,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
@@ -26,18 +33,15 @@ import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.Resource;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.FolderType;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
 import com.archimatetool.model.IDiagramModelImageProvider;
 import com.archimatetool.model.IFolder;
 import com.archimatetool.model.IFolderContainer;
@@ -54,7 +58,7 @@ import com.archimatetool.model.IIdentifier;
  * @author Phillip Beauvoir
  */
 public class GraficoModelExporter {
-	
+    
     // Use a ProgressMonitor to cancel running Jobs and track Exception
     private static class ExceptionProgressMonitor extends NullProgressMonitor {
         IOException ex;
@@ -65,10 +69,70 @@ public class GraficoModelExporter {
         }
     }
     
-	/**
-	 * ResourceSet
-	 */
-	private ResourceSet fResourceSet;
+    /**
+     * Copies a single object that is persisted in its own Grafico file (model, folder, element or diagram)
+     * without its child folders and elements.
+     * References to objects outside of the copy are set to proxies of their Grafico files
+     * so that the copy is serialized in the same way as it would be in a full copy of the model.
+     */
+    @SuppressWarnings("serial")
+    private class FileObjectCopier extends EcoreUtil.Copier {
+        private Map<EObject, EObject> proxies = new HashMap<>();
+        
+        EObject copyFileObject(EObject eObject) {
+            EObject copy = copy(eObject);
+            copyReferences();
+            return copy;
+        }
+        
+        @Override
+        public EObject get(Object key) {
+            EObject copy = super.get(key);
+            
+            if(copy == null && key instanceof EObject) {
+                copy = proxies.computeIfAbsent((EObject)key, this::createProxy);
+            }
+            
+            return copy;
+        }
+        
+        @Override
+        protected void copyContainment(EReference eReference, EObject eObject, EObject copyEObject) {
+            // Child folders and elements are persisted in their own files
+            if(eReference != IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS && eReference != IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+                super.copyContainment(eReference, eObject, copyEObject);
+            }
+        }
+        
+        private EObject createProxy(EObject eObject) {
+            String id = EcoreUtil.getID(eObject);
+            URI uri = getResourceURI(getFileObject(eObject));
+            
+            // If we can't create a proxy the original object is used
+            if(id == null || uri == null) {
+                return null;
+            }
+            
+            InternalEObject proxy = (InternalEObject)EcoreUtil.create(eObject.eClass());
+            proxy.eSetProxyURI(uri.appendFragment(id));
+            return proxy;
+        }
+    }
+    
+    /**
+     * A copy of an object that is persisted in its own Grafico file and the file to save it in
+     */
+    private static class FileObjectCopy {
+        File file;
+        EObject copy;
+        URI uri;
+        
+        FileObjectCopy(File file, EObject copy, URI uri) {
+            this.file = file;
+            this.copy = copy;
+            this.uri = uri;
+        }
+    }
 	
     /**
      * Model
@@ -80,6 +144,26 @@ public class GraficoModelExporter {
      */
     private File fLocalRepoFolder;
     
+    /**
+     * If true only write files whose contents have changed and delete stale files
+     */
+    private boolean fIncremental;
+    
+    /**
+     * Files written (or kept) by this export
+     */
+    private Set<File> fExportedFiles;
+    
+    /**
+     * Writers that are not in use by a save Job. A writer is re-used for each object that a Job saves.
+     */
+    private Queue<GraficoObjectWriter> fWriters;
+    
+    /**
+     * Repo relative paths of the files and folders that the export could have changed, or null if any could have changed
+     */
+    private Set<String> fChangedPaths;
+	
 	/**
 	 * @param model The model to export
 	 * @param folder The root folder in which to write the grafico XML files
@@ -95,52 +179,218 @@ public class GraficoModelExporter {
 	    fModel = model;
 	    fLocalRepoFolder = folder;
 	}
-	
+    
     /**
      * Export the IArchimateModel as Grafico files
+     * This deletes the "model" and "images" folders and re-writes all files
+     * The model is only read on the calling thread and must not be modified until this returns
      * @throws IOException
      */
     public void exportModel() throws IOException {
+        exportModel(false);
+    }
+    
+    /**
+     * Export the IArchimateModel as Grafico files
+     * Only files whose serialized contents or location have changed are written, and files that no longer
+     * correspond to an object in the model are deleted. Unchanged files are not touched.
+     * If the model's changes have been tracked since the last export then only the changed objects are exported.
+     * The model is only read on the calling thread and must not be modified until this returns
+     * @throws IOException
+     */
+    public void exportModelIncremental() throws IOException {
+        exportModel(true);
+    }
+    
+    /**
+     * @return The repo relative paths of the files and folders that the last export could have changed,
+     *         or null if any file in the "model" and "images" folders could have changed.
+     *         This is only known when only the changed objects were exported.
+     */
+    public Set<String> getChangedPaths() {
+        return fChangedPaths;
+    }
+    
+    private void exportModel(boolean incremental) throws IOException {
+        fIncremental = incremental;
+        fExportedFiles = new HashSet<>();
+        fWriters = new ConcurrentLinkedQueue<>();
+        fChangedPaths = null;
+        
         // Define target folders for model and images
-        // Delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
         File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        FileUtils.deleteFolder(modelFolder);
-        modelFolder.mkdirs();
-
         File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-        FileUtils.deleteFolder(imagesFolder);
+        
+        // Changes to the model since the last export to its local repo folder, or null if the model is not being tracked
+        DirtyObjectTracker tracker = isModelRepoFolder() ? RepositoryListenerManager.INSTANCE.getDirtyObjectTracker(fModel) : null;
+        
+        try {
+            // We know which objects have changed since the last export
+            if(incremental && tracker != null && tracker.hasExportedFiles()) {
+                exportDirtyObjects(tracker, modelFolder, imagesFolder);
+            }
+            else {
+                exportAllObjects(tracker, modelFolder, imagesFolder);
+            }
+        }
+        catch(IOException ex) {
+            // We don't know the state of the files now so start again next time
+            if(tracker != null) {
+                tracker.reset();
+            }
+            throw ex;
+        }
+    }
+    
+    /**
+     * @return true if the export folder is the local repo folder of the model. Changes are only tracked for exports to this folder.
+     */
+    private boolean isModelRepoFolder() {
+        File folder = GraficoUtils.getLocalRepositoryFolderForModel(fModel);
+        return folder != null && folder.getAbsoluteFile().equals(fLocalRepoFolder.getAbsoluteFile());
+    }
+    
+    /**
+     * Export all objects in the model
+     */
+    private void exportAllObjects(DirtyObjectTracker tracker, File modelFolder, File imagesFolder) throws IOException {
+        // Everything is exported so clear tracked changes
+        if(tracker != null) {
+            tracker.takeDirtyObjects();
+            tracker.takeImagesChanged();
+        }
+        
+        // If not incremental delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
+        if(!fIncremental) {
+            FileUtils.deleteFolder(modelFolder);
+            FileUtils.deleteFolder(imagesFolder);
+        }
+        
+        modelFolder.mkdirs();
         imagesFolder.mkdirs();
-
-        // Save model images (if any): this has to be done on original model (not a copy)
-        saveImages();
         
-        // Create ResourceSet
-        fResourceSet = new ResourceSetImpl();
-        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-        // Add a URIConverter that will be used to map full filenames to logical names
-        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+        // Save model images (if any)
+        Set<File> imageFiles = saveImages();
         
-        // Now work on a copy
-        IArchimateModel copy = EcoreUtil.copy(fModel);
+        // Create directory structure and get the file for each object
+        Map<EObject, File> files = new LinkedHashMap<>();
+        createFolders(fModel, modelFolder, files);
+        
+        // Now save all objects
+        saveObjects(files);
+        
+        // Delete any files left over from a previous export
+        if(fIncremental) {
+            deleteStaleFiles(modelFolder, fExportedFiles);
+            deleteStaleFiles(imagesFolder, imageFiles);
+        }
+        
+        // This is now the baseline for tracked changes
+        if(tracker != null) {
+            tracker.setExportedFiles(files);
+        }
+    }
+    
+    /**
+     * Export only those objects that have changed since the last export
+     */
+    private void exportDirtyObjects(DirtyObjectTracker tracker, File modelFolder, File imagesFolder) throws IOException {
+        Set<EObject> dirtyObjects = tracker.takeDirtyObjects();
+        boolean imagesChanged = tracker.takeImagesChanged();
+        Map<EObject, File> exportedFiles = tracker.getExportedFiles();
+        
+        modelFolder.mkdirs();
+        imagesFolder.mkdirs();
+        
+        Map<EObject, File> files = new LinkedHashMap<>();
+        Set<File> oldFolders = new HashSet<>();
+        
+        Set<String> changedPaths = new HashSet<>();
+        
+        // Delete the files of objects that have been moved or deleted
+        for(EObject eObject : dirtyObjects) {
+            File newFile = getFileFor(eObject, modelFolder); // null if deleted
+            File oldFile = exportedFiles.get(eObject);
+            
+            if(oldFile != null && !oldFile.equals(newFile)) {
+                Files.deleteIfExists(oldFile.toPath());
+                changedPaths.add(getRepoPath(oldFile));
+                exportedFiles.remove(eObject);
+                if(eObject instanceof IFolder) {
+                    oldFolders.add(oldFile.getParentFile());
+                }
+            }
+            
+            if(newFile != null) {
+                files.put(eObject, newFile);
+            }
+        }
+        
+        // Delete any folders left empty
+        for(File folder : oldFolders) {
+            deleteEmptyFolders(folder);
+        }
+        
+        for(File file : files.values()) {
+            file.getParentFile().mkdirs();
+        }
+        
+        // Save changed objects
+        saveObjects(files);
+        
+        exportedFiles.putAll(files);
+        
+        for(File file : files.values()) {
+            changedPaths.add(getRepoPath(file));
+        }
+        
+        // Images were added or removed
+        if(imagesChanged) {
+            Set<File> imageFiles = saveImages();
+            deleteStaleFiles(imagesFolder, imageFiles);
+            changedPaths.add(IGraficoConstants.IMAGES_FOLDER);
+        }
+        
+        fChangedPaths = changedPaths;
+    }
+    
+    /**
+     * @return The path of a file relative to the local repo folder as used by Git
+     */
+    private String getRepoPath(File file) {
+        return fLocalRepoFolder.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+    
+    /**
+     * Save objects to their files using a pool of Jobs
+     * The objects are copied on the calling thread first so that the Jobs don't read the model
+     * 
+     * @param files Object -> file map
+     */
+    private void saveObjects(Map<EObject, File> files) throws IOException {
+        List<FileObjectCopy> copies = new ArrayList<>(files.size());
+        
+        for(Entry<EObject, File> entry : files.entrySet()) {
+            fExportedFiles.add(entry.getValue().getAbsoluteFile());
+            copies.add(copyObject(entry.getValue(), entry.getKey()));
+        }
         
-        // Create directory structure and prepare all Resources
-        createAndSaveResourceForFolder(copy, modelFolder);
-
-        // Now save all Resources
         int maxThreads = ModelRepositoryPlugin.getInstance().getPreferenceStore().getInt(IPreferenceConstants.PREFS_EXPORT_MAX_THREADS);
         JobGroup jobgroup = new JobGroup("GraficoModelExporter", maxThreads, 1); //$NON-NLS-1$
         
         final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
         
-        for(Resource resource : fResourceSet.getResources()) {
+        for(FileObjectCopy copy : copies) {
             Job job = new Job("Resource Save Job") { //$NON-NLS-1$
                 @Override
                 protected IStatus run(IProgressMonitor monitor) {
-                    try {
-                        resource.save(null);
-                    }
-                    catch(IOException ex) {
-                        pm.catchException(ex);
+                    if(!pm.isCanceled()) {
+                        try {
+                            saveObject(copy);
+                        }
+                        catch(IOException ex) {
+                            pm.catchException(ex);
+                        }
                     }
                     return Status.OK_STATUS;
                 }
@@ -164,14 +414,76 @@ public class GraficoModelExporter {
     }
     
     /**
-     * For each folder inside model, create a directory and a Resource to save it.
-     * For each element, create a Resource to save it
+     * Delete files in folder (and its sub-folders) that are not in the set of exported files, and any folders left empty
      * 
-     * @param folderContainer Model or folder to work on 
+     * @param folder The folder to check
+     * @param exportedFiles The files to keep
+     * @return true if the folder is empty after deleting files
+     */
+    private boolean deleteStaleFiles(File folder, Set<File> exportedFiles) throws IOException {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return false;
+        }
+        
+        boolean isEmpty = true;
+        
+        for(File file : files) {
+            if(file.isDirectory()) {
+                if(deleteStaleFiles(file, exportedFiles)) {
+                    Files.delete(file.toPath());
+                }
+                else {
+                    isEmpty = false;
+                }
+            }
+            else if(!exportedFiles.contains(file.getAbsoluteFile())) {
+                Files.delete(file.toPath());
+            }
+            else {
+                isEmpty = false;
+            }
+        }
+        
+        return isEmpty;
+    }
+    
+    /**
+     * Delete folder if it contains no files, and any empty sub-folders
+     * 
+     * @param folder The folder to check
+     * @return true if the folder was deleted
+     */
+    private boolean deleteEmptyFolders(File folder) throws IOException {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return false;
+        }
+        
+        boolean isEmpty = true;
+        
+        for(File file : files) {
+            if(!(file.isDirectory() && deleteEmptyFolders(file))) {
+                isEmpty = false;
+            }
+        }
+        
+        if(isEmpty) {
+            Files.delete(folder.toPath());
+        }
+        
+        return isEmpty;
+    }
+    
+    /**
+     * For each folder inside model, create a directory and get the file to save it in.
+     * For each element, get the file to save it in.
+     * 
+     * @param folderContainer Model or folder to work on
      * @param folder Directory in which to generate files
-     * @throws IOException
+     * @param files Map of object to file to add to
      */
-    private void createAndSaveResourceForFolder(IFolderContainer folderContainer, File folder) throws IOException {
+    private void createFolders(IFolderContainer folderContainer, File folder, Map<EObject, File> files) {
         // Save each children folders
         List<IFolder> allFolders = new ArrayList<IFolder>();
         allFolders.addAll(folderContainer.getFolders());
@@ -179,8 +491,8 @@ public class GraficoModelExporter {
         for(IFolder tmpFolder : allFolders) {
             File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
             tmpFolderFile.mkdirs();
-            createAndSaveResource(new File(tmpFolderFile, IGraficoConstants.FOLDER_XML), tmpFolder);
-            createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
+            files.put(tmpFolder, new File(tmpFolderFile, IGraficoConstants.FOLDER_XML));
+            createFolders(tmpFolder, tmpFolderFile, files);
         }
         
         // Save each children elements
@@ -189,19 +501,59 @@ public class GraficoModelExporter {
             List<EObject> allElements = new ArrayList<EObject>();
             allElements.addAll(((IFolder)folderContainer).getElements());
             for(EObject tmpElement : allElements) {
-                createAndSaveResource(
-                        new File(folder, tmpElement.getClass().getSimpleName() + "_" + ((IIdentifier)tmpElement).getId() + ".xml"), //$NON-NLS-1$ //$NON-NLS-2$
-                        tmpElement);
+                files.put(tmpElement, new File(folder, getFileNameFor(tmpElement)));
             }
         }
         if(folderContainer instanceof IArchimateModel) {
-            createAndSaveResource(new File(folder, IGraficoConstants.FOLDER_XML), folderContainer);
+            files.put(folderContainer, new File(folder, IGraficoConstants.FOLDER_XML));
         }
     }
     
+    /**
+     * Get the file that an object in the model is saved in
+     * 
+     * @param eObject An object that is persisted in its own Grafico file
+     * @param modelFolder The "model" folder
+     * @return The file or null if the object is not in the model
+     */
+    private File getFileFor(EObject eObject, File modelFolder) {
+        if(eObject == fModel) {
+            return new File(modelFolder, IGraficoConstants.FOLDER_XML);
+        }
+        
+        if(eObject instanceof IFolder) {
+            File folder = getFolderFor((IFolder)eObject, modelFolder);
+            return folder != null ? new File(folder, IGraficoConstants.FOLDER_XML) : null;
+        }
+        
+        if(eObject.eContainer() instanceof IFolder) {
+            File folder = getFolderFor((IFolder)eObject.eContainer(), modelFolder);
+            return folder != null ? new File(folder, getFileNameFor(eObject)) : null;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @return The directory for a folder in the model or null if the folder is not in the model
+     */
+    private File getFolderFor(IFolder folder, File modelFolder) {
+        EObject parent = folder.eContainer();
+        
+        File parentFolder = null;
+        if(parent == fModel) {
+            parentFolder = modelFolder;
+        }
+        else if(parent instanceof IFolder) {
+            parentFolder = getFolderFor((IFolder)parent, modelFolder);
+        }
+        
+        return parentFolder != null ? new File(parentFolder, getNameFor(folder)) : null;
+    }
+    
     /**
      * Generate a proper name for directory creation
-     *  
+     * 
      * @param folder
      * @return
      */
@@ -210,51 +562,98 @@ public class GraficoModelExporter {
     }
     
     /**
-     * Save the model to Resource
-     * 
-     * @param file
-     * @param object
-     * @throws IOException
+     * @return The file name for an element or diagram
      */
-    private void createAndSaveResource(File file, EObject object) throws IOException {
-    	// Update the URIConverter
-        // Map the logical name (filename) to the physical name (path+filename)
-    	// Folders must be declared with absolute path or else the 'folder.xml' file is not created
-    	// The model object must be declared with relative path or else concepts reference profiles through absolute path (which are gonna be different for each users)
-        URI key = (!(object instanceof IArchimateModel) && file.getName().equals(IGraficoConstants.FOLDER_XML)) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
-        URI value = URI.createFileURI(file.getAbsolutePath());
-        fResourceSet.getURIConverter().getURIMap().put(key, value);
-
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.createResource(key);
+    private String getFileNameFor(EObject element) {
+        return element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * The logical URI of the Resource for an object persisted in its own Grafico file, or null.
+     * The model object must be declared with relative path or else concepts reference profiles through absolute path (which are gonna be different for each users)
+     * Elements must be declared with relative path so that references to them are relative
+     */
+    private URI getResourceURI(EObject fileObject) {
+        if(fileObject instanceof IArchimateModel) {
+            return URI.createFileURI(IGraficoConstants.FOLDER_XML);
+        }
         
-        // Use UTF-8 and don't start with an XML declaration
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        if(fileObject instanceof IFolder) {
+            File file = getFileFor(fileObject, new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER));
+            return file != null ? URI.createFileURI(file.getAbsolutePath()) : null;
+        }
         
-        // Make the produced XML easy to read
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, Integer.valueOf(5));
+        if(fileObject instanceof IIdentifier) {
+            return URI.createFileURI(getFileNameFor(fileObject));
+        }
         
-        // Don't use encoded attribute. Needed to have proper references inside Diagrams
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        return null;
+    }
+    
+    /**
+     * @return The object that is persisted in its own Grafico file and that contains eObject (or is eObject)
+     * This is the model, a folder, or an element or diagram in a folder.
+     */
+    static EObject getFileObject(EObject eObject) {
+        while(eObject != null) {
+            EObject container = eObject.eContainer();
+            
+            if(eObject instanceof IArchimateModel || eObject instanceof IFolder || container == null || container instanceof IFolder) {
+                return eObject;
+            }
+            
+            eObject = container;
+        }
         
-        // Use cache
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+        return null;
+    }
+    
+    /**
+     * Copy an object to save
+     * We don't copy the whole model as one, only this object without its child folders and elements
+     * 
+     * @param file
+     * @param object The object in the model
+     */
+    private FileObjectCopy copyObject(File file, EObject object) {
+        // Work on a copy of the object as adding it to a Resource would change the model
+        return new FileObjectCopy(file, new FileObjectCopier().copyFileObject(object), getResourceURI(object));
+    }
+    
+    /**
+     * Save a copied object to its file
+     * 
+     * @param copy
+     * @throws IOException
+     */
+    private void saveObject(FileObjectCopy copy) throws IOException {
+        // Use a free writer, or a new one if they are all in use by other Jobs
+        GraficoObjectWriter writer = fWriters.poll();
+        if(writer == null) {
+            writer = new GraficoObjectWriter();
+        }
         
-        // Use UNIX line endings to avoid EOL diffs
-        resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n"); //$NON-NLS-1$
-
-        // Add the object to the resource
-        resource.getContents().add(object);
+        try {
+            writer.write(copy.copy, copy.uri);
+            
+            // If incremental only write the file if its contents are different
+            if(!(fIncremental && writer.isSameAs(copy.file))) {
+                writer.writeTo(copy.file);
+            }
+        }
+        finally {
+            fWriters.add(writer);
+        }
     }
     
     /**
      * Extract and save images used inside a model as separate image files
+     * @return The set of image files used by the model
      */
-    private void saveImages() {
+    private Set<File> saveImages() {
         Set<String> saved = new HashSet<>(); // Check don't save more than once
-
+        Set<File> imageFiles = new HashSet<>();
+        
         IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
         if(archiveManager == null) {
             archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
@@ -274,9 +673,17 @@ public class GraficoModelExporter {
                         ModelRepositoryPlugin.getInstance().getLog().error("Could not get image bytes from image path: " + imagePath, new IOException()); //$NON-NLS-1$
                     }
                     else {
+                        File file = new File(fLocalRepoFolder, imagePath).getAbsoluteFile();
+                        imageFiles.add(file);
+                        
                         try {
-                            File file = new File(fLocalRepoFolder, imagePath);
-                            Files.write(file.toPath(), bytes, StandardOpenOption.CREATE);
+                            if(!fIncremental) {
+                                Files.write(file.toPath(), bytes, StandardOpenOption.CREATE);
+                            }
+                            // If incremental only write the image if it's different
+                            else if(!(file.isFile() && file.length() == bytes.length && Arrays.equals(bytes, Files.readAllBytes(file.toPath())))) {
+                                Files.write(file.toPath(), bytes);
+                            }
                         }
                         // Catch exception here and continue on to next image
                         // Don't fail saving the model because of an image
@@ -289,5 +696,7 @@ public class GraficoModelExporter {
                 }
             }
         }
+        
+        return imageFiles;
     }
 }
@@ -9,13 +9,29 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
@@ -23,6 +39,13 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
 import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.model.compatibility.CompatibilityHandlerException;
@@ -53,6 +76,36 @@ import com.archimatetool.model.IProfile;
  */
 public class GraficoModelImporter {
     
+    /**
+     * Number of files loaded by each load Job
+     */
+    private static final int FILES_PER_JOB = 100;
+    
+    // Use a ProgressMonitor to cancel running Jobs and track Exception
+    private static class ExceptionProgressMonitor extends NullProgressMonitor {
+        IOException ex;
+        
+        synchronized void catchException(IOException ex) {
+            if(this.ex == null) {
+                this.ex = ex;
+            }
+            setCanceled(true); // Cancel running jobs on exception
+        }
+    }
+    
+    /**
+     * The XML files of a folder to load, as paths relative to the root folder
+     */
+    private static class FolderFiles {
+        String folderFile;
+        List<String> elementFiles = new ArrayList<String>();
+        List<FolderFiles> childFolders = new ArrayList<FolderFiles>();
+        
+        FolderFiles(String folderFile) {
+            this.folderFile = folderFile;
+        }
+    }
+    
     /**
      * Unresolved missing object class
      * 
@@ -81,11 +134,32 @@ public class GraficoModelImporter {
      */
     private IArchimateModel fModel;
     
+    /**
+     * Path -> object of each loaded file
+     */
+    private Map<String, IIdentifier> fLoadedFiles;
+    
     /**
      * Local repo folder
      */
     private File fLocalRepoFolder;
     
+    /**
+     * Repository and commit tree to read the files from instead of a folder
+     */
+    private Repository fRepository;
+    private RevTree fRevTree;
+    
+    /**
+     * Path -> blob of each file in the commit tree
+     */
+    private Map<String, ObjectId> fTreeFiles;
+    
+    /**
+     * Path -> names of the files and sub-folders of each folder in the commit tree
+     */
+    private Map<String, Set<String>> fTreeFolders;
+    
     /**
      * @param folder The folder containing the grafico XML files
      */
@@ -96,52 +170,58 @@ public class GraficoModelImporter {
         
         fLocalRepoFolder = folder;
     }
+    
+    /**
+     * Import the grafico XML files of a commit by reading their blobs from the repository
+     * rather than checking them out to a folder
+     * 
+     * @param repository The repository. This must remain open until the import is done
+     * @param tree The commit's tree
+     */
+    public GraficoModelImporter(Repository repository, RevTree tree) {
+        if(repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null"); //$NON-NLS-1$
+        }
+        if(tree == null) {
+            throw new IllegalArgumentException("Tree cannot be null"); //$NON-NLS-1$
+        }
+        
+        fRepository = repository;
+        fRevTree = tree;
+    }
 	
     /**
      * Import the grafico XML files as a IArchimateModel
      * @throws IOException
      */
     public IArchimateModel importAsModel() throws IOException {
-    	// Create folders for model and images
-    	File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        modelFolder.mkdirs();
-
-        File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-    	imagesFolder.mkdirs();
+        if(fRepository != null) {
+            // Index the files in the commit tree
+            readTree();
+        }
+        else {
+            // Create folders for model and images
+            new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER).mkdirs();
+            new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER).mkdirs();
+        }
     	
     	// If the top folder.xml does not exist then there is nothing to import, so return null
-    	if(!(new File(modelFolder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    	if(!isFile(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
     	    return null;
     	}
     	
     	// Reset the ID -> Object lookup table
-    	fIDLookup = new HashMap<String, IIdentifier>();
+    	// This is concurrent because files are loaded in parallel
+    	fIDLookup = new ConcurrentHashMap<String, IIdentifier>();
     	
         // Load the Model from files (it will contain unresolved proxies)
-    	fModel = loadModel(modelFolder);
-    	
-    	// Create a new Resource for the model object so we can work with it in the ModelCompatibility class
-    	Resource resource = new XMLResourceImpl();
-    	resource.getContents().add(fModel);
+    	fModel = loadModel(IGraficoConstants.MODEL_FOLDER);
     	
         // Resolve proxies
         resolveProxies();
 
-    	// New model compatibility
-        ModelCompatibility modelCompatibility = new ModelCompatibility(resource);
-    	
         // Fix any backward compatibility issues
-    	// This has to be done here because GraficoModelLoader#loadModel() will save with latest metamodel version number
-    	// And then the ModelCompatibility won't be able to tell the version number
-        try {
-            modelCompatibility.fixCompatibility();
-        }
-        catch(CompatibilityHandlerException ex) {
-            ModelRepositoryPlugin.getInstance().getLog().error("Error loading model", ex); //$NON-NLS-1$
-        }
-
-    	// We now have to remove the Eobject from its Resource so it can be saved in its proper *.archimate format
-        resource.getContents().remove(fModel);
+        fixCompatibility();
         
         // Add Archive Manager and CommandStack
         IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
@@ -152,7 +232,7 @@ public class GraficoModelImporter {
         fModel.setAdapter(CommandStack.class, cmdStack);
         
     	// Load images
-    	loadImages(imagesFolder, archiveManager);
+    	loadImages(IGraficoConstants.IMAGES_FOLDER, archiveManager);
 
     	return fModel;
     }
@@ -165,20 +245,103 @@ public class GraficoModelImporter {
     }
     
     /**
-     * Read images from images subfolder and load them into the model
+     * Add the objects of restored files that were missing to the imported model, and resolve the proxies that referenced them.
+     * Only the objects that had unresolved proxies and the restored objects are resolved, not the whole model.
+     * Restored files can be from older versions of the model so the model's compatibility is then fixed again.
+     * This can only be used after a model has been imported from a folder.
+     * 
+     * @param files Paths of the restored files relative to the folder
+     * @return The restored objects
+     * @throws IOException if a file can't be loaded, in which case the model is not changed
      */
-    private void loadImages(File folder, IArchiveManager archiveManager) {
-        File[] files = folder.listFiles();
-        if(files == null) {
-            return;
+    public List<IIdentifier> importRestoredObjects(Collection<String> files) throws IOException {
+        List<IIdentifier> restoredObjects = new ArrayList<IIdentifier>();
+        
+        if(fModel == null || fRepository != null) {
+            return restoredObjects;
+        }
+        
+        // Load all files before changing the model
+        Map<String, IIdentifier> loaded = new LinkedHashMap<String, IIdentifier>();
+        for(String file : files) {
+            loaded.put(file, loadEObject(file, null));
         }
         
-        for(File imageFile : files) {
-            if(imageFile.isFile()) {
+        for(Entry<String, IIdentifier> entry : loaded.entrySet()) {
+            String file = entry.getKey();
+            IIdentifier eObject = entry.getValue();
+            
+            addToIDLookup(eObject);
+            fLoadedFiles.put(file, eObject);
+            restoredObjects.add(eObject);
+            
+            // Add it to the folder that its file is in, or the default folder if that is not in the model
+            IIdentifier folder = fLoadedFiles.get(file.substring(0, file.lastIndexOf('/') + 1) + IGraficoConstants.FOLDER_XML);
+            if(folder instanceof IFolder) {
+                ((IFolder)folder).getElements().add(eObject);
+            }
+            else {
+                fModel.getDefaultFolderForObject(eObject).getElements().add(eObject);
+            }
+        }
+        
+        // The objects that referenced the restored objects, and the restored objects themselves
+        Set<EObject> objects = new LinkedHashSet<EObject>();
+        if(fUnresolvedObjects != null) {
+            for(UnresolvedObject unresolved : fUnresolvedObjects) {
+                objects.add(unresolved.parentObject);
+            }
+        }
+        for(IIdentifier eObject : restoredObjects) {
+            objects.add(eObject);
+            for(Iterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+                objects.add(iter.next());
+            }
+        }
+        
+        fUnresolvedObjects = null;
+        
+        for(EObject eObject : objects) {
+            resolveProxies(eObject);
+        }
+        
+        fixCompatibility();
+        
+        return restoredObjects;
+    }
+    
+    /**
+     * Fix any backward compatibility issues of the model
+     * This has to be done here because GraficoModelLoader#loadModel() will save with latest metamodel version number
+     * And then the ModelCompatibility won't be able to tell the version number
+     */
+    private void fixCompatibility() {
+        // Create a new Resource for the model object so we can work with it in the ModelCompatibility class
+        Resource resource = new XMLResourceImpl();
+        resource.getContents().add(fModel);
+        
+        try {
+            new ModelCompatibility(resource).fixCompatibility();
+        }
+        catch(CompatibilityHandlerException ex) {
+            ModelRepositoryPlugin.getInstance().getLog().error("Error loading model", ex); //$NON-NLS-1$
+        }
+        
+        // We now have to remove the Eobject from its Resource so it can be saved in its proper *.archimate format
+        resource.getContents().remove(fModel);
+    }
+    
+    /**
+     * Read images from images subfolder and load them into the model
+     */
+    private void loadImages(String folder, IArchiveManager archiveManager) {
+        for(String name : listChildren(folder)) {
+            String path = folder + "/" + name; //$NON-NLS-1$
+            if(isFile(path)) {
                 try {
-                    byte[] bytes = Files.readAllBytes(imageFile.toPath());
+                    byte[] bytes = readBytes(path);
                     // This must match the prefix used in ArchiveManager.createArchiveImagePathname()
-                    archiveManager.addByteContentEntry("images/" + imageFile.getName(), bytes); //$NON-NLS-1$
+                    archiveManager.addByteContentEntry("images/" + name, bytes); //$NON-NLS-1$
                 }
                 // Catch exception here and continue on to next image
                 // Don't fail loading the model because of an image
@@ -196,44 +359,49 @@ public class GraficoModelImporter {
         fUnresolvedObjects = null;
         
         for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
-            EObject eObject = iter.next();
-
-            if(eObject instanceof IArchimateConcept) {
-                // Resolve proxies for profiles
-            	IArchimateConcept concept = (IArchimateConcept)eObject;
-            	EList<IProfile> profiles = concept.getProfiles();
-            	// getProfiles() can't return null so no need to check
-            	// Assumption: most concepts don't have profiles so checking for empty has a positive impact on performance
-            	if(!profiles.isEmpty()) {
-	            	ListIterator<IProfile> iterator = profiles.listIterator();
-	            	while(iterator.hasNext()) {
-	            		IProfile profile = iterator.next();
-	            		iterator.set((IProfile)resolve(profile, concept));
-	            	}
-            	}
-            }
-            
-            if(eObject instanceof IArchimateRelationship) {
-                // Resolve proxies for Relations
-                IArchimateRelationship relation = (IArchimateRelationship)eObject;
-                relation.setSource((IArchimateConcept)resolve(relation.getSource(), relation));
-                relation.setTarget((IArchimateConcept)resolve(relation.getTarget(), relation));
-            }
-            else if(eObject instanceof IDiagramModelArchimateObject) {
-                // Resolve proxies for Elements
-                IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
-                element.setArchimateElement((IArchimateElement)resolve(element.getArchimateElement(), element));
-            }
-            else if(eObject instanceof IDiagramModelArchimateConnection) {
-                // Resolve proxies for Connections
-                IDiagramModelArchimateConnection archiConnection = (IDiagramModelArchimateConnection)eObject;
-                archiConnection.setArchimateRelationship((IArchimateRelationship)resolve(archiConnection.getArchimateRelationship(), archiConnection));
-            }
-            else if(eObject instanceof IDiagramModelReference) {
-                // Resolve proxies for Model References
-                IDiagramModelReference element = (IDiagramModelReference)eObject;
-                element.setReferencedModel((IDiagramModel)resolve(element.getReferencedModel(), element));
-            }
+            resolveProxies(iter.next());
+        }
+    }
+    
+    /**
+     * Resolve the proxies of an object if it is of a known class
+     */
+    private void resolveProxies(EObject eObject) {
+        if(eObject instanceof IArchimateConcept) {
+            // Resolve proxies for profiles
+        	IArchimateConcept concept = (IArchimateConcept)eObject;
+        	EList<IProfile> profiles = concept.getProfiles();
+        	// getProfiles() can't return null so no need to check
+        	// Assumption: most concepts don't have profiles so checking for empty has a positive impact on performance
+        	if(!profiles.isEmpty()) {
+	        	ListIterator<IProfile> iterator = profiles.listIterator();
+	        	while(iterator.hasNext()) {
+	        		IProfile profile = iterator.next();
+	        		iterator.set((IProfile)resolve(profile, concept));
+	        	}
+        	}
+        }
+        
+        if(eObject instanceof IArchimateRelationship) {
+            // Resolve proxies for Relations
+            IArchimateRelationship relation = (IArchimateRelationship)eObject;
+            relation.setSource((IArchimateConcept)resolve(relation.getSource(), relation));
+            relation.setTarget((IArchimateConcept)resolve(relation.getTarget(), relation));
+        }
+        else if(eObject instanceof IDiagramModelArchimateObject) {
+            // Resolve proxies for Elements
+            IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
+            element.setArchimateElement((IArchimateElement)resolve(element.getArchimateElement(), element));
+        }
+        else if(eObject instanceof IDiagramModelArchimateConnection) {
+            // Resolve proxies for Connections
+            IDiagramModelArchimateConnection archiConnection = (IDiagramModelArchimateConnection)eObject;
+            archiConnection.setArchimateRelationship((IArchimateRelationship)resolve(archiConnection.getArchimateRelationship(), archiConnection));
+        }
+        else if(eObject instanceof IDiagramModelReference) {
+            // Resolve proxies for Model References
+            IDiagramModelReference element = (IDiagramModelReference)eObject;
+            element.setReferencedModel((IDiagramModel)resolve(element.getReferencedModel(), element));
         }
     }
 
@@ -264,9 +432,12 @@ public class GraficoModelImporter {
         }
     }
     
-	private IArchimateModel loadModel(File folder) throws IOException {
-		IArchimateModel model = (IArchimateModel)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
-		IFolder tmpFolder;
+	private IArchimateModel loadModel(String folder) throws IOException {
+	    // All files to load
+	    List<String> files = new ArrayList<String>();
+	    
+	    String modelFile = folder + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+	    files.add(modelFile);
 		
 		List<FolderType> folderList = new ArrayList<FolderType>();
 		folderList.add(FolderType.STRATEGY);
@@ -280,66 +451,265 @@ public class GraficoModelImporter {
 		folderList.add(FolderType.DIAGRAMS);
 
 		// Loop based on FolderType enumeration
+		List<FolderFiles> folderFilesList = new ArrayList<FolderFiles>();
 		for(FolderType folderType : folderList) {
-		    if((tmpFolder = loadFolder(new File(folder, folderType.toString()))) != null) {
-		        model.getFolders().add(tmpFolder);
-		    }
+		    folderFilesList.add(scanFolder(folder + "/" + folderType.toString(), files)); //$NON-NLS-1$
+		}
+		
+		// Load all files
+		Map<String, IIdentifier> objects = loadFiles(files);
+		fLoadedFiles = objects;
+		
+		// Then put the model together in a set order
+		IArchimateModel model = (IArchimateModel)objects.get(modelFile);
+		
+		for(FolderFiles folderFiles : folderFilesList) {
+		    model.getFolders().add(createFolder(folderFiles, objects));
 		}
 		
 		return model;
 	}
 	
 	/**
-	 * Load each XML file to recreate original object
+	 * Scan a folder for the XML files to load
 	 * 
 	 * @param folder
-	 * @return Model folder
+	 * @param files All files to load are added to this list
+	 * @return The folder's files
 	 * @throws IOException 
 	 */
-    private IFolder loadFolder(File folder) throws IOException {
-        if(!folder.isDirectory() || !(new File(folder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    private FolderFiles scanFolder(String folder, List<String> files) throws IOException {
+        String folderFile = folder + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+        
+        if(!isDirectory(folder) || !isFile(folderFile)) {
             throw new IOException("File is not directory or folder.xml does not exist."); //$NON-NLS-1$
         }
 
-        // Load folder object itself
-        IFolder currentFolder = (IFolder)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
+        FolderFiles folderFiles = new FolderFiles(folderFile);
+        files.add(folderFiles.folderFile);
 
-        // Load each elements (except folder.xml) and add them to folder
-        File[] files = folder.listFiles();
-        if(files != null) {
-            for(File fileOrFolder : files) {
-                if(!fileOrFolder.getName().equals(IGraficoConstants.FOLDER_XML)) {
-                    if(fileOrFolder.isFile()) {
-                        currentFolder.getElements().add(loadElement(fileOrFolder));
-                    }
-                    else {
-                        currentFolder.getFolders().add(loadFolder(fileOrFolder));
-                    }
+        // Each element (except folder.xml) and sub-folder
+        for(String name : listChildren(folder)) {
+            if(!name.equals(IGraficoConstants.FOLDER_XML)) {
+                String fileOrFolder = folder + "/" + name; //$NON-NLS-1$
+                if(isFile(fileOrFolder)) {
+                    folderFiles.elementFiles.add(fileOrFolder);
+                    files.add(fileOrFolder);
+                }
+                else {
+                    folderFiles.childFolders.add(scanFolder(fileOrFolder, files));
                 }
             }
         }
 
+        return folderFiles;
+    }
+    
+    /**
+     * Add the loaded elements and sub-folders to a loaded folder
+     * 
+     * @param folderFiles
+     * @param objects Loaded objects
+     * @return Model folder
+     */
+    private IFolder createFolder(FolderFiles folderFiles, Map<String, IIdentifier> objects) {
+        IFolder currentFolder = (IFolder)objects.get(folderFiles.folderFile);
+        
+        for(String file : folderFiles.elementFiles) {
+            currentFolder.getElements().add(objects.get(file));
+        }
+        
+        for(FolderFiles childFolderFiles : folderFiles.childFolders) {
+            currentFolder.getFolders().add(createFolder(childFolderFiles, objects));
+        }
+        
         return currentFolder;
     }
+    
+    /**
+     * Load XML files into objects using a pool of Jobs
+     * 
+     * @param files
+     * @return Path -> object map
+     * @throws IOException
+     */
+    private Map<String, IIdentifier> loadFiles(List<String> files) throws IOException {
+        Map<String, IIdentifier> objects = new ConcurrentHashMap<String, IIdentifier>();
+        
+        int maxThreads = ModelRepositoryPlugin.getInstance().getPreferenceStore().getInt(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS);
+        
+        // Not worth using more than one thread
+        if(maxThreads < 2 || files.size() <= FILES_PER_JOB) {
+            try(ObjectReader reader = newObjectReader()) {
+                for(String file : files) {
+                    objects.put(file, loadElement(file, reader));
+                }
+            }
+            return objects;
+        }
+        
+        JobGroup jobgroup = new JobGroup("GraficoModelImporter", maxThreads, 1); //$NON-NLS-1$
+        
+        final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
+        
+        // Each Job loads a batch of files
+        for(int i = 0; i < files.size(); i += FILES_PER_JOB) {
+            List<String> batch = files.subList(i, Math.min(i + FILES_PER_JOB, files.size()));
+            
+            Job job = new Job("Resource Load Job") { //$NON-NLS-1$
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    // An ObjectReader is not thread safe so each Job has its own
+                    try(ObjectReader reader = newObjectReader()) {
+                        for(String file : batch) {
+                            if(pm.isCanceled()) {
+                                break;
+                            }
+                            objects.put(file, loadElement(file, reader));
+                        }
+                    }
+                    catch(IOException ex) {
+                        pm.catchException(ex);
+                    }
+                    return Status.OK_STATUS;
+                }
+            };
+            
+            job.setSystem(true);
+            job.setJobGroup(jobgroup);
+            job.schedule();
+        }
+        
+        try {
+            jobgroup.join(0, pm);
+        }
+        catch(OperationCanceledException | InterruptedException ex) {
+            ex.printStackTrace();
+        }
+        
+        // Throw on any exception
+        if(pm.ex != null) {
+            throw pm.ex;
+        }
+        
+        return objects;
+    }
 
     /**
      * Create an eObject from an XML file. Basically load a resource.
      * 
-     * @param file
+     * @param file Path of the file
+     * @param reader Reader for the file's blob if loading from a commit tree, else null
      * @return
      * @throws IOException 
      */
-    private EObject loadElement(File file) throws IOException {
-        IIdentifier eObject = GraficoResourceLoader.loadEObject(file);
+    private IIdentifier loadElement(String file, ObjectReader reader) throws IOException {
+        IIdentifier eObject = loadEObject(file, reader);
+        addToIDLookup(eObject);
+        return eObject;
+    }
+    
+    /**
+     * Load an eObject from an XML file without adding it to the ID -> Object mapping table
+     * 
+     * @param file Path of the file
+     * @param reader Reader for the file's blob if loading from a commit tree, else null
+     */
+    private IIdentifier loadEObject(String file, ObjectReader reader) throws IOException {
+        IIdentifier eObject;
+        
+        if(fRepository != null) {
+            // Copy the object if the same blob has been loaded before
+            ObjectId blobId = fTreeFiles.get(file);
+            eObject = GraficoParseCache.INSTANCE.get(blobId);
+            
+            if(eObject == null) {
+                eObject = GraficoResourceLoader.loadEObject(reader.open(blobId, Constants.OBJ_BLOB).openStream());
+                GraficoParseCache.INSTANCE.put(blobId, eObject);
+            }
+        }
+        else {
+            eObject = GraficoResourceLoader.loadEObject(new File(fLocalRepoFolder, file));
+        }
         
-        // Update an ID -> Object mapping table (used as a cache to resolve proxies)
+        return eObject;
+    }
+    
+    /**
+     * Update an ID -> Object mapping table (used as a cache to resolve proxies)
+     */
+    private void addToIDLookup(IIdentifier eObject) {
         fIDLookup.put(eObject.getId(), eObject);
         if(eObject instanceof IArchimateModel) {
         	for(IProfile profile : ((IArchimateModel)eObject).getProfiles()) {
         		fIDLookup.put(profile.getId(), profile);
         	}
         }
-
-        return eObject;
+    }
+    
+    /**
+     * Index the model and images files in the commit tree
+     */
+    private void readTree() throws IOException {
+        fTreeFiles = new HashMap<String, ObjectId>();
+        fTreeFolders = new HashMap<String, Set<String>>();
+        
+        try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            treeWalk.addTree(fRevTree);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                fTreeFiles.put(path, treeWalk.getObjectId(0));
+                
+                // Add the file to its folder, and each new folder to its parent folder
+                for(int index = path.lastIndexOf('/'); index != -1; index = path.lastIndexOf('/')) {
+                    String folder = path.substring(0, index);
+                    if(!fTreeFolders.computeIfAbsent(folder, k -> new LinkedHashSet<String>()).add(path.substring(index + 1))) {
+                        break;
+                    }
+                    path = folder;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return A new ObjectReader if loading from a commit tree, else null
+     */
+    private ObjectReader newObjectReader() {
+        return fRepository != null ? fRepository.newObjectReader() : null;
+    }
+    
+    private boolean isFile(String path) {
+        return fRepository != null ? fTreeFiles.containsKey(path) : new File(fLocalRepoFolder, path).isFile();
+    }
+    
+    private boolean isDirectory(String path) {
+        return fRepository != null ? fTreeFolders.containsKey(path) : new File(fLocalRepoFolder, path).isDirectory();
+    }
+    
+    /**
+     * @return The names of the files and sub-folders in a folder
+     */
+    private Collection<String> listChildren(String folder) {
+        if(fRepository != null) {
+            Set<String> children = fTreeFolders.get(folder);
+            return children != null ? children : Collections.emptySet();
+        }
+        
+        String[] children = new File(fLocalRepoFolder, folder).list();
+        return children != null ? Arrays.asList(children) : Collections.emptyList();
+    }
+    
+    private byte[] readBytes(String path) throws IOException {
+        if(fRepository != null) {
+            try(ObjectReader reader = fRepository.newObjectReader()) {
+                return reader.open(fTreeFiles.get(path), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+            }
+        }
+        
+        return Files.readAllBytes(new File(fLocalRepoFolder, path).toPath());
     }
 }
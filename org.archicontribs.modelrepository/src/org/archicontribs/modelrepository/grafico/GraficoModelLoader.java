@@ -9,15 +9,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter.UnresolvedObject;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -62,6 +62,10 @@ public class GraficoModelLoader {
     public IArchimateModel loadModel() throws IOException {
         fRestoredObjects = null;
         
+        // Grafico files may have changed so tracked model changes and changed paths are no longer valid
+        RepositoryListenerManager.INSTANCE.resetDirtyObjectTracker(fRepository.locateModel());
+        StatusPathHints.INSTANCE.clear(fRepository.getLocalGitFolder());
+        
         // Import Grafico Model
         GraficoModelImporter importer = new GraficoModelImporter(fRepository.getLocalRepositoryFolder());
         
@@ -91,7 +95,7 @@ public class GraficoModelLoader {
         // Resolve missing objects
         List<UnresolvedObject> unresolvedObjects = importer.getUnresolvedObjects();
         if(unresolvedObjects != null) {
-            graficoModel[0] = restoreProblemObjects(unresolvedObjects);
+            restoreProblemObjects(importer, unresolvedObjects);
         }
         
         // Save it
@@ -132,90 +136,73 @@ public class GraficoModelLoader {
     }
     
     /**
-     * Find the problem object xml files from the commit history and restore them
+     * Find the problem object xml files from the commit history, restore them and add their objects to the imported model
+     * @param importer The importer of the model
      * @param unresolvedObjects 
-     * @return
      * @throws IOException
      */
-    private IArchimateModel restoreProblemObjects(List<UnresolvedObject> unresolvedObjects) throws IOException {
-        fRestoredObjects = new ArrayList<IIdentifier>();
+    private void restoreProblemObjects(GraficoModelImporter importer, List<UnresolvedObject> unresolvedObjects) throws IOException {
+        // File names of the missing objects still to be found
+        Set<String> missingFiles = new HashSet<>();
+        for(UnresolvedObject unresolved : unresolvedObjects) {
+            missingFiles.add(unresolved.missingObjectURI.lastSegment());
+        }
         
-        List<String> restoredIdentifiers = new ArrayList<String>();
+        // Paths of the restored files
+        List<String> restoredFiles = new ArrayList<>();
         
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                for(UnresolvedObject unresolved : unresolvedObjects) {
-                    String missingFileName = unresolved.missingObjectURI.lastSegment();
-                    String missingObjectID = unresolved.missingObjectURI.fragment();
-                    
-                    // Already got this one
-                    if(restoredIdentifiers.contains(missingObjectID)) {
-                        continue;
-                    }
-                    
-                    boolean found = false;
-                    
-                    // Reset RevWalk
-                    revWalk.reset();
-                    ObjectId id = repository.resolve(IGraficoConstants.HEAD);
-                    if(id != null) {
-                        revWalk.markStart(revWalk.parseCommit(id)); 
-                    }
+        // Look for all the missing files in one pass of the history from the latest commit back
+        try(Repository repository = RepositoryPool.INSTANCE.openRepository(fRepository.getLocalRepositoryFolder());
+                ObjectReader reader = repository.newObjectReader();
+                RevWalk revWalk = new RevWalk(reader)) {
+            
+            ObjectId id = repository.resolve(IGraficoConstants.HEAD);
+            if(id != null) {
+                revWalk.markStart(revWalk.parseCommit(id)); 
+            }
+            
+            // Folders that are the same in more than one commit only need to be looked at once
+            Set<ObjectId> seenTrees = new HashSet<>();
+            
+            // Iterate all commits
+            for(RevCommit commit : revWalk) {
+                if(missingFiles.isEmpty()) {
+                    break;
+                }
+                
+                try(TreeWalk treeWalk = new TreeWalk(reader)) {
+                    treeWalk.addTree(commit.getTree());
                     
-                    // Iterate all commits
-                    for(RevCommit commit : revWalk ) {
-                        try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                            treeWalk.addTree(commit.getTree());
-                            treeWalk.setRecursive(true);
-                            
-                            // Iterate through all files
-                            // We can't use a PathFilter for the file name as its path is not correct
-                            while(!found && treeWalk.next()) {
-                                // File is found
-                                if(treeWalk.getPathString().endsWith(missingFileName)) {
-                                    // Save file
-                                    ObjectId objectId = treeWalk.getObjectId(0);
-                                    ObjectLoader loader = repository.open(objectId);
-
-                                    File file = new File(fRepository.getLocalRepositoryFolder(), treeWalk.getPathString());
-                                    file.getParentFile().mkdirs();
-                                    
-                                    try(FileOutputStream out = new FileOutputStream(file)) {
-                                        loader.copyTo(out);
-                                    }
-                                    
-                                    restoredIdentifiers.add(missingObjectID);
-                                    found = true;
-                                }
+                    // We can't use a PathFilter for the file name as its path is not correct
+                    while(!missingFiles.isEmpty() && treeWalk.next()) {
+                        if(treeWalk.isSubtree()) {
+                            if(seenTrees.add(treeWalk.getObjectId(0))) {
+                                treeWalk.enterSubtree();
                             }
+                            continue;
                         }
                         
-                        if(found) {
-                            break;
+                        // File is found
+                        if(missingFiles.remove(treeWalk.getNameString())) {
+                            // Save file
+                            File file = new File(fRepository.getLocalRepositoryFolder(), treeWalk.getPathString());
+                            file.getParentFile().mkdirs();
+                            
+                            try(FileOutputStream out = new FileOutputStream(file)) {
+                                reader.open(treeWalk.getObjectId(0)).copyTo(out);
+                            }
+                            
+                            restoredFiles.add(treeWalk.getPathString());
                         }
                     }
                 }
-                
-                revWalk.dispose();
-            }
-        }
-        
-        // Then re-import
-        GraficoModelImporter importer = new GraficoModelImporter(fRepository.getLocalRepositoryFolder());
-        IArchimateModel graficoModel = importer.importAsModel();
-        graficoModel.setFile(fRepository.getTempModelFile()); // do this again
-        
-        // Collect restored objects
-        for(Iterator<EObject> iter = graficoModel.eAllContents(); iter.hasNext();) {
-            EObject element = iter.next();
-            for(String id : restoredIdentifiers) {
-                if(element instanceof IIdentifier && id.equals(((IIdentifier)element).getId())) {
-                    fRestoredObjects.add((IIdentifier)element);
-                }
             }
+            
+            revWalk.dispose();
         }
         
-        return graficoModel;
+        // Then add the restored objects to the model
+        fRestoredObjects = importer.importRestoredObjects(restoredFiles);
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,151 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+
+/**
+ * Writes objects in the Grafico XML format
+ * 
+ * A writer re-uses its Resource, save options, feature lookup table and output buffer for each object that it writes
+ * so that there is little allocation per object. It is not thread safe, so each thread should use its own writer.
+ * 
+ * @author Phillip Beauvoir
+ */
+public class GraficoObjectWriter {
+    
+    /**
+     * Save options for Resources
+     */
+    static final Map<Object, Object> SAVE_OPTIONS = createSaveOptions();
+    
+    /**
+     * Output buffer that can be compared with a file without copying
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(8192);
+        }
+        
+        boolean isSameAs(InputStream in) throws IOException {
+            byte[] bytes = new byte[8192];
+            int pos = 0;
+            int n;
+            
+            while((n = in.read(bytes)) != -1) {
+                if(pos + n > count) {
+                    return false;
+                }
+                for(int i = 0; i < n; i++) {
+                    if(buf[pos++] != bytes[i]) {
+                        return false;
+                    }
+                }
+            }
+            
+            return pos == count;
+        }
+    }
+    
+    private XMLResource fResource = new XMLResourceImpl();
+    
+    private Map<Object, Object> fSaveOptions = new HashMap<>(SAVE_OPTIONS);
+    
+    private Buffer fBuffer = new Buffer();
+    
+    public GraficoObjectWriter() {
+        // Re-use the feature lookup table for each object
+        fSaveOptions.put(XMLResource.OPTION_USE_CACHED_LOOKUP_TABLE, new ArrayList<Object>());
+    }
+    
+    /**
+     * Serialize an object to this writer's buffer
+     * 
+     * @param object The object to write. This should be a copy as it is added to a Resource while it is written.
+     * @param uri The logical URI of the object's Resource. References to objects in other Resources are written relative to this.
+     * @throws IOException
+     */
+    public void write(EObject object, URI uri) throws IOException {
+        fBuffer.reset();
+        fResource.setURI(uri);
+        fResource.getContents().add(object);
+        
+        try {
+            fResource.save(fBuffer, fSaveOptions);
+        }
+        finally {
+            fResource.getContents().clear();
+        }
+    }
+    
+    /**
+     * @return true if the file exists and has the same contents as the last object written
+     */
+    boolean isSameAs(File file) throws IOException {
+        if(!file.isFile() || file.length() != fBuffer.size()) {
+            return false;
+        }
+        
+        try(InputStream in = Files.newInputStream(file.toPath())) {
+            return fBuffer.isSameAs(in);
+        }
+    }
+    
+    /**
+     * Write the last object written to a file
+     */
+    public void writeTo(File file) throws IOException {
+        try(OutputStream out = new FileOutputStream(file)) {
+            fBuffer.writeTo(out);
+        }
+    }
+    
+    /**
+     * @return A copy of the bytes of the last object written
+     */
+    byte[] toByteArray() {
+        return fBuffer.toByteArray();
+    }
+    
+    private static Map<Object, Object> createSaveOptions() {
+        Map<Object, Object> options = new HashMap<>();
+        
+        // Use UTF-8 and don't start with an XML declaration
+        options.put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+        options.put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        
+        // Make the produced XML easy to read
+        options.put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
+        options.put(XMLResource.OPTION_LINE_WIDTH, Integer.valueOf(5));
+        
+        // Don't use encoded attribute. Needed to have proper references inside Diagrams
+        options.put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        
+        // Use cache
+        options.put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+        
+        // Use UNIX line endings to avoid EOL diffs
+        options.put(Resource.OPTION_LINE_DELIMITER, "\n"); //$NON-NLS-1$
+        
+        return Collections.unmodifiableMap(options);
+    }
+}
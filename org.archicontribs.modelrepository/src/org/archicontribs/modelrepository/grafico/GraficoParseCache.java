@@ -0,0 +1,128 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * In-memory cache of objects loaded from Grafico files in commit trees, keyed by the Git blob id of the file's contents.
+ * 
+ * Most Grafico files are the same blob in other commits, so an object can be copied from a cached template
+ * rather than parsing the blob again. Templates are never returned, only copies of them, and each copy has its own proxies.
+ * A template is only made the second time that a blob is loaded so that a blob that is only loaded once is not copied.
+ * Templates are softly referenced so that they can be garbage collected when memory is low.
+ * 
+ * @author Phillip Beauvoir
+ */
+class GraficoParseCache {
+    
+    static final GraficoParseCache INSTANCE = new GraficoParseCache();
+    
+    /**
+     * Maximum number of cached templates or blobs loaded once. When this is reached they are cleared.
+     */
+    private static final int MAX_ENTRIES = 50000;
+    
+    /**
+     * Copies an object loaded from a Grafico file. References to proxies are set to new proxies with the same URI.
+     */
+    @SuppressWarnings("serial")
+    private static class ProxyCopier extends EcoreUtil.Copier {
+        private Map<EObject, EObject> proxies = new HashMap<>();
+        
+        ProxyCopier() {
+            super(false); // Don't resolve proxies
+        }
+        
+        @Override
+        public EObject get(Object key) {
+            EObject copy = super.get(key);
+            
+            if(copy == null && key instanceof EObject && ((EObject)key).eIsProxy()) {
+                copy = proxies.computeIfAbsent((EObject)key, proxy -> {
+                    InternalEObject newProxy = (InternalEObject)EcoreUtil.create(proxy.eClass());
+                    newProxy.eSetProxyURI(((InternalEObject)proxy).eProxyURI());
+                    return newProxy;
+                });
+            }
+            
+            return copy;
+        }
+    }
+    
+    /**
+     * Blob id -> template
+     */
+    private Map<ObjectId, SoftReference<IIdentifier>> fTemplates = new ConcurrentHashMap<>();
+    
+    /**
+     * Blob ids that have been loaded once and have no template
+     */
+    private Set<ObjectId> fLoadedOnce = ConcurrentHashMap.newKeySet();
+    
+    private GraficoParseCache() {
+    }
+    
+    /**
+     * @param blobId The blob id of a Grafico file's contents
+     * @return A copy of the template of the blob, or null if it is not cached
+     */
+    IIdentifier get(ObjectId blobId) {
+        SoftReference<IIdentifier> ref = fTemplates.get(blobId);
+        if(ref == null) {
+            return null;
+        }
+        
+        IIdentifier template = ref.get();
+        if(template == null) {
+            fTemplates.remove(blobId, ref);
+            return null;
+        }
+        
+        // Templates are not changed so can be copied by more than one thread
+        return copy(template);
+    }
+    
+    /**
+     * Record that a blob was loaded. If it was loaded before then a copy of the loaded object is cached as its template.
+     * 
+     * @param blobId The blob id of a Grafico file's contents
+     * @param eObject The object loaded from the blob. This must not have been changed.
+     */
+    void put(ObjectId blobId, IIdentifier eObject) {
+        if(fLoadedOnce.add(blobId)) {
+            if(fLoadedOnce.size() > MAX_ENTRIES) {
+                fLoadedOnce.clear();
+            }
+            return;
+        }
+        
+        if(fTemplates.size() >= MAX_ENTRIES) {
+            fTemplates.clear();
+        }
+        
+        fTemplates.put(blobId, new SoftReference<>(copy(eObject)));
+        fLoadedOnce.remove(blobId);
+    }
+    
+    private IIdentifier copy(IIdentifier eObject) {
+        EcoreUtil.Copier copier = new ProxyCopier();
+        EObject copy = copier.copy(eObject);
+        copier.copyReferences();
+        return (IIdentifier)copy;
+    }
+}
@@ -8,13 +8,16 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.xmi.XMLParserPool;
 import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLParserPoolImpl;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
 
 import com.archimatetool.editor.model.compatibility.IncompatibleModelException;
@@ -23,8 +26,21 @@ import com.archimatetool.model.IIdentifier;
 
 /**
  * Load an EObject from a file or input stream
+ * 
+ * SAX parsers and their handlers are shared between loads (and threads) in a pool
+ * so that a parser is not created and configured for each file that is loaded.
  */
 public class GraficoResourceLoader {
+    
+    /**
+     * Pool of parsers and handlers. This is thread safe.
+     */
+    private static final XMLParserPool PARSER_POOL = new XMLParserPoolImpl(true);
+    
+    /**
+     * Load options for Resources
+     */
+    private static final Map<Object, Object> LOAD_OPTIONS = createLoadOptions();
 
     public static IIdentifier loadEObject(File file) throws IOException {
         XMLResource resource = new XMLResourceImpl(URI.createFileURI(file.getAbsolutePath()));
@@ -36,27 +52,25 @@ public class GraficoResourceLoader {
         return load(resource, inputStream);
     }
     
+    /**
+     * Load an EObject from an input stream as if it were loaded from a file
+     * @param inputStream The input stream
+     * @param uri The file's URI that references to objects in other files are resolved against
+     */
+    public static IIdentifier loadEObject(InputStream inputStream, URI uri) throws IOException {
+        XMLResource resource = new XMLResourceImpl(uri);
+        return load(resource, inputStream);
+    }
+    
     private static IIdentifier load(XMLResource resource, InputStream inputStream) throws IOException {
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-        
-        // Don't allow DTD loading in case of XSS exploits
-        Map<String, Object> parserFeatures = new HashMap<String, Object>();
-        parserFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE); //$NON-NLS-1$
-        parserFeatures.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE); //$NON-NLS-1$
-        parserFeatures.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE); //$NON-NLS-1$
-        parserFeatures.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE); //$NON-NLS-1$
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_PARSER_FEATURES, parserFeatures);
-       
-        ModelCompatibility modelCompatibility = new ModelCompatibility(resource);
-        
         // Load the Resource so we can trap any exceptions
         try {
             if(inputStream != null) {
-                resource.load(inputStream, null);
+                resource.load(inputStream, LOAD_OPTIONS);
                 inputStream.close();
             }
             else {
-                resource.load(null);
+                resource.load(LOAD_OPTIONS);
             }
         }
         catch(IOException ex) {
@@ -66,7 +80,7 @@ public class GraficoResourceLoader {
             }
             // Check to see if it's an exception that is OK or not
             try {
-                modelCompatibility.checkErrors();
+                new ModelCompatibility(resource).checkErrors();
             }
             catch(IncompatibleModelException ex1) {
                 ModelRepositoryPlugin.getInstance().getLog().error("Error loading model", ex); //$NON-NLS-1$
@@ -85,4 +99,29 @@ public class GraficoResourceLoader {
         
         return (IIdentifier)eObject;
     }
+    
+    private static Map<Object, Object> createLoadOptions() {
+        Map<Object, Object> options = new HashMap<>();
+        
+        options.put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+        
+        // Don't allow DTD loading in case of XSS exploits
+        Map<String, Boolean> parserFeatures = new HashMap<String, Boolean>();
+        parserFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE); //$NON-NLS-1$
+        parserFeatures.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE); //$NON-NLS-1$
+        parserFeatures.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE); //$NON-NLS-1$
+        parserFeatures.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE); //$NON-NLS-1$
+        options.put(XMLResource.OPTION_PARSER_FEATURES, Collections.unmodifiableMap(parserFeatures));
+        
+        // Re-use parsers and handlers. The pool keys parsers on their features so these are always set.
+        options.put(XMLResource.OPTION_USE_PARSER_POOL, PARSER_POOL);
+        
+        // Don't use the slower deprecated XMLHandler methods
+        options.put(XMLResource.OPTION_USE_DEPRECATED_METHODS, Boolean.FALSE);
+        
+        // Add the root object to the Resource when it is complete rather than notifying as each child object is added
+        options.put(XMLResource.OPTION_DEFER_ATTACHMENT, Boolean.TRUE);
+        
+        return Collections.unmodifiableMap(options);
+    }
 }
@@ -3,6 +3,8 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.eclipse.jgit.api.Git;
@@ -114,6 +116,15 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException;
 
+    /**
+     * Check whether the Remote's branches differ from the local remote tracking branches without fetching them
+     * @param npw
+     * @return true if a fetch would update a remote tracking branch
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    boolean hasRemoteChanges(UsernamePassword npw) throws IOException, GitAPIException;
+
     /**
      * Create a new, local Git repository with name set to "origin"
      * @param URL online URL
@@ -134,6 +145,16 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     byte[] getFileContents(String path, String ref) throws IOException;
 
+    /**
+     * Return the contents of a set of files in the repo given their ref in one walk of the ref's tree
+     * Ref could be "HEAD" or "origin/master" for example
+     * @param paths
+     * @param ref
+     * @return A map of each file's path to its contents. Files that are not found are not in the map.
+     * @throws IOException
+     */
+    Map<String, byte[]> getFileContents(Set<String> paths, String ref) throws IOException;
+
     /**
      * Get the file contents of a file in the working tree
      * @param path
@@ -186,7 +207,7 @@ public interface IArchiRepository extends IGraficoConstants {
     void saveUserDetails(String name, String email) throws IOException;
     
     /**
-     * @return The Branch Status
+     * @return The Branch Status. This is cached until the repo's refs change so should not be modified.
      * @throws IOException
      * @throws GitAPIException
      */
@@ -32,6 +32,16 @@ public interface IGraficoConstants {
      * Name of folder for model
      */
     String MODEL_FOLDER = "model"; //$NON-NLS-1$
+    
+    /**
+     * Name of folder in the .git folder for the cache of models imported from commits
+     */
+    String MODEL_CACHE_FOLDER = "modelcache"; //$NON-NLS-1$
+    
+    /**
+     * Name of file in the .git folder for the commit graph of the branches
+     */
+    String COMMIT_GRAPH_FILE = "commitgraph"; //$NON-NLS-1$
 
     /**
      * File name of user name/password for each git repo
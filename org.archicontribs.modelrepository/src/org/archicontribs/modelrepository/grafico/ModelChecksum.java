@@ -0,0 +1,158 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checksum of a repo's temp model file that is only calculated again when the file's size or modification time changes.
+ * 
+ * The size, modification time and checksum of the file when it was last hashed are kept in memory
+ * and persisted in a state file in the .git folder next to the "checksum" file.
+ * 
+ * @author Phillip Beauvoir
+ */
+class ModelChecksum {
+    
+    /**
+     * Name of the state file in the .git folder
+     */
+    static final String STATE_FILE = "checksum.state"; //$NON-NLS-1$
+    
+    /**
+     * A file modified within this time of being hashed could be modified again without its modification time changing
+     */
+    private static final long RACY_TIME = 3000;
+    
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    
+    /**
+     * Size, modification time and checksum of a file when it was hashed
+     */
+    private static class State {
+        long size;
+        long lastModified;
+        String checksum;
+        
+        State(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+    
+    /**
+     * State file -> State
+     */
+    private static final Map<File, State> STATES = new ConcurrentHashMap<>();
+    
+    /**
+     * @param file The file
+     * @param stateFile The state file for the file
+     * @return The file's MD5 checksum as a hex string
+     * @throws IOException
+     */
+    static String getChecksum(File file, File stateFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        
+        State state = STATES.get(stateFile);
+        if(state == null) {
+            state = readState(stateFile);
+        }
+        
+        // File is unchanged since it was last hashed
+        if(state != null && state.size == size && state.lastModified == lastModified) {
+            STATES.put(stateFile, state);
+            return state.checksum;
+        }
+        
+        String checksum = createChecksum(file);
+        
+        // Only keep the state if the file can't be changed again without changing its modification time
+        if(System.currentTimeMillis() - lastModified > RACY_TIME) {
+            state = new State(size, lastModified, checksum);
+            STATES.put(stateFile, state);
+            writeState(stateFile, state);
+        }
+        else {
+            STATES.remove(stateFile);
+            Files.deleteIfExists(stateFile.toPath());
+        }
+        
+        return checksum;
+    }
+    
+    private static State readState(File stateFile) {
+        if(!stateFile.isFile()) {
+            return null;
+        }
+        
+        try {
+            List<String> lines = Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8);
+            if(lines.size() == 3) {
+                return new State(Long.parseLong(lines.get(0)), Long.parseLong(lines.get(1)), lines.get(2));
+            }
+        }
+        // If the state can't be read the file will be hashed
+        catch(IOException | NumberFormatException ex) {
+        }
+        
+        return null;
+    }
+    
+    private static void writeState(File stateFile, State state) throws IOException {
+        String contents = state.size + "\n" + state.lastModified + "\n" + state.checksum; //$NON-NLS-1$ //$NON-NLS-2$
+        Files.write(stateFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Hash the file with large reads rather than memory-mapping it, as a mapped file is locked on Windows until it is garbage collected
+     */
+    private static String createChecksum(File file) throws IOException {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IOException("NoSuchAlgorithm Exception", ex); //$NON-NLS-1$
+        }
+        
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(channel.size(), 1)));
+            
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        
+        // Get the hash's bytes
+        byte[] bytes = digest.digest();
+        
+        // Convert it to hexadecimal format
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < bytes.length; i++) {
+            sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+        }
+        
+        return sb.toString();
+    }
+}
@@ -6,9 +6,13 @@
 package org.archicontribs.modelrepository.grafico;
 
 import java.beans.PropertyChangeEvent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 
 import com.archimatetool.editor.model.IEditorModelManager;
 import com.archimatetool.model.IArchimateModel;
@@ -25,6 +29,9 @@ public class RepositoryListenerManager {
     
     private CopyOnWriteArrayList<IRepositoryListener> listeners = new CopyOnWriteArrayList<>();
     
+    // Changed objects in open models in local repos
+    private Map<IArchimateModel, DirtyObjectTracker> dirtyObjectTrackers = new ConcurrentHashMap<>();
+    
     private RepositoryListenerManager() {
         // Listen to open model changes
         IEditorModelManager.INSTANCE.addPropertyChangeListener(this::modelPropertyChanged);
@@ -48,6 +55,31 @@ public class RepositoryListenerManager {
         }
     }
 
+    /**
+     * Get the tracker of changed objects for a model that is open and in a local repo
+     * @param model The model
+     * @return The tracker or null if the model is not open or not in a local repo
+     */
+    DirtyObjectTracker getDirtyObjectTracker(IArchimateModel model) {
+        // We only get notifications for open models
+        if(!GraficoUtils.isModelInLocalRepository(model) || !IEditorModelManager.INSTANCE.getModels().contains(model)) {
+            return null;
+        }
+        
+        return dirtyObjectTrackers.computeIfAbsent(model, m -> new DirtyObjectTracker());
+    }
+    
+    /**
+     * Forget the tracked changes for a model. The next export will be of the whole model.
+     * This should be called if the Grafico files are changed other than by exporting the model.
+     * @param model The model, can be null
+     */
+    void resetDirtyObjectTracker(IArchimateModel model) {
+        if(model != null) {
+            dirtyObjectTrackers.remove(model);
+        }
+    }
+
     /**
      * EditorModelManager Property Change listener
      */
@@ -56,9 +88,22 @@ public class RepositoryListenerManager {
         if(evt.getPropertyName().equals(IEditorModelManager.PROPERTY_MODEL_SAVED)) {
             notifyModelChanged((IArchimateModel)evt.getNewValue());
         }
-        // Notify on model name change
+        // Model closed
+        else if(evt.getPropertyName().equals(IEditorModelManager.PROPERTY_MODEL_REMOVED)) {
+            resetDirtyObjectTracker((IArchimateModel)evt.getNewValue());
+        }
         else if(evt.getPropertyName().equals(IEditorModelManager.PROPERTY_ECORE_EVENT)) {
             Notification msg = (Notification)evt.getNewValue();
+            
+            // Track changed objects
+            if(!dirtyObjectTrackers.isEmpty() && msg.getNotifier() instanceof EObject) {
+                DirtyObjectTracker tracker = dirtyObjectTrackers.get(EcoreUtil.getRootContainer((EObject)msg.getNotifier()));
+                if(tracker != null) {
+                    tracker.notifyChanged(msg);
+                }
+            }
+            
+            // Notify on model name change
             if(msg.getNotifier() instanceof IArchimateModel && msg.getFeature() == IArchimatePackage.Literals.NAMEABLE__NAME) {
                 notifyModelChanged((IArchimateModel)msg.getNotifier());
             }
@@ -0,0 +1,194 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Shared JGit Repository instances for local repos
+ * 
+ * Opening a Repository reads its config and refs and later its pack indexes. A pooled Repository is kept open between calls
+ * so that this state is re-used. Each open increments the Repository's use count and each close decrements it.
+ * The pool holds its own use of each Repository until it has not been opened for a while, and then the Repository
+ * is closed when its last user closes it.
+ * 
+ * @author Phillip Beauvoir
+ */
+public class RepositoryPool {
+    
+    public static final RepositoryPool INSTANCE = new RepositoryPool();
+    
+    /**
+     * A Repository that has not been opened for this time is removed from the pool
+     */
+    private static final long IDLE_TIME = 60 * 1000;
+    
+    private static class Handle {
+        Repository repository;
+        Object folderKey;
+        long lastUsed;
+    }
+    
+    /**
+     * Git whose close() closes its Repository, as Git.open() does
+     */
+    private static class PooledGit extends Git {
+        PooledGit(Repository repository) {
+            super(repository);
+        }
+        
+        @Override
+        public void close() {
+            getRepository().close();
+        }
+    }
+    
+    /**
+     * .git folder -> Handle
+     */
+    private Map<File, Handle> fHandles = new HashMap<>();
+    
+    private Timer fTimer;
+    
+    private RepositoryPool() {
+    }
+    
+    /**
+     * Open a local repo in the same way as Git.open()
+     * 
+     * @param localRepoFolder The local repo folder or its .git folder
+     * @return A Git instance. This must be closed.
+     * @throws IOException
+     */
+    public Git openGit(File localRepoFolder) throws IOException {
+        return new PooledGit(openRepository(localRepoFolder));
+    }
+    
+    /**
+     * Open a local repo in the same way as Git.open(localRepoFolder).getRepository()
+     * 
+     * @param localRepoFolder The local repo folder or its .git folder
+     * @return The Repository. This must be closed.
+     * @throws IOException
+     */
+    public synchronized Repository openRepository(File localRepoFolder) throws IOException {
+        File gitFolder = FileKey.lenient(localRepoFolder.getAbsoluteFile(), FS.DETECTED).getFile();
+        if(!gitFolder.isDirectory()) {
+            throw new RepositoryNotFoundException(localRepoFolder);
+        }
+        
+        Object folderKey = getFolderKey(gitFolder);
+        
+        Handle handle = fHandles.get(gitFolder);
+        
+        // The repo folder was deleted and created again
+        if(handle != null && !Objects.equals(handle.folderKey, folderKey)) {
+            fHandles.remove(gitFolder);
+            handle.repository.close();
+            handle = null;
+        }
+        
+        if(handle == null) {
+            handle = new Handle();
+            handle.repository = new RepositoryBuilder().setFS(FS.DETECTED).setGitDir(gitFolder).setMustExist(true).build();
+            handle.folderKey = folderKey;
+            fHandles.put(gitFolder, handle);
+            startTimer();
+        }
+        
+        handle.lastUsed = System.currentTimeMillis();
+        
+        // This use of the Repository
+        handle.repository.incrementOpen();
+        
+        return handle.repository;
+    }
+    
+    /**
+     * Remove a local repo from the pool. This should be called before deleting the repo's folder.
+     * 
+     * @param localRepoFolder The local repo folder or its .git folder
+     */
+    public synchronized void close(File localRepoFolder) {
+        File gitFolder = FileKey.lenient(localRepoFolder.getAbsoluteFile(), FS.DETECTED).getFile();
+        Handle handle = fHandles.remove(gitFolder);
+        if(handle != null) {
+            handle.repository.close();
+        }
+    }
+    
+    /**
+     * Remove all local repos from the pool
+     */
+    public synchronized void closeAll() {
+        for(Handle handle : fHandles.values()) {
+            handle.repository.close();
+        }
+        fHandles.clear();
+        stopTimer();
+    }
+    
+    private synchronized void closeIdle() {
+        long now = System.currentTimeMillis();
+        
+        for(Iterator<Handle> iter = fHandles.values().iterator(); iter.hasNext();) {
+            Handle handle = iter.next();
+            if(now - handle.lastUsed > IDLE_TIME) {
+                iter.remove();
+                handle.repository.close();
+            }
+        }
+        
+        if(fHandles.isEmpty()) {
+            stopTimer();
+        }
+    }
+    
+    private void startTimer() {
+        if(fTimer == null) {
+            fTimer = new Timer("Repository Pool", true); //$NON-NLS-1$
+            fTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    closeIdle();
+                }
+            }, IDLE_TIME, IDLE_TIME);
+        }
+    }
+    
+    private void stopTimer() {
+        if(fTimer != null) {
+            fTimer.cancel();
+            fTimer = null;
+        }
+    }
+    
+    /**
+     * @return A key that identifies the .git folder so that a new folder at the same location is not mistaken for it
+     */
+    private Object getFolderKey(File gitFolder) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(gitFolder.toPath(), BasicFileAttributes.class);
+        
+        // The file key is null on Windows where the creation time is used instead
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * The paths in each repo that could differ from HEAD, so that git status only has to look at those paths
+ * 
+ * The paths are known from the time that the repo was last found to be clean, and are added to by each export that knows the paths it changed.
+ * They are only used while HEAD and the index are as they were when the paths were last recorded.
+ * The index is compared by the checksum at the end of the index file, so an index written by anything else forgets the paths.
+ * Changes to files made outside of Archi that are not staged are not seen.
+ * 
+ * @author Phillip Beauvoir
+ */
+class StatusPathHints {
+    
+    static final StatusPathHints INSTANCE = new StatusPathHints();
+    
+    private static class Hint {
+        ObjectId head;
+        byte[] indexChecksum;
+        Set<String> paths;
+    }
+    
+    /**
+     * .git folder -> Hint
+     */
+    private Map<File, Hint> fHints = new ConcurrentHashMap<>();
+    
+    private StatusPathHints() {
+    }
+    
+    /**
+     * @return The paths that could differ from HEAD, or null if not known
+     * @throws IOException
+     */
+    Set<String> getChangedPaths(Repository repository) throws IOException {
+        File gitFolder = repository.getDirectory().getAbsoluteFile();
+        
+        Hint hint = fHints.get(gitFolder);
+        if(hint == null) {
+            return null;
+        }
+        
+        if(!Objects.equals(hint.head, repository.resolve(Constants.HEAD)) || !Arrays.equals(hint.indexChecksum, getIndexChecksum(repository))) {
+            fHints.remove(gitFolder);
+            return null;
+        }
+        
+        return Collections.unmodifiableSet(hint.paths);
+    }
+    
+    /**
+     * Record that the working tree and index are the same as HEAD
+     * @throws IOException
+     */
+    void setClean(Repository repository) throws IOException {
+        setChangedPaths(repository, new HashSet<>());
+    }
+    
+    /**
+     * Add paths that were changed and staged. This should only be called if the paths were known before the change.
+     * @param paths The paths or null if not known
+     * @throws IOException
+     */
+    void addChangedPaths(Repository repository, Set<String> paths) throws IOException {
+        if(paths == null) {
+            clear(repository.getDirectory());
+            return;
+        }
+        
+        Set<String> changedPaths = new HashSet<>(paths);
+        
+        Hint hint = fHints.get(repository.getDirectory().getAbsoluteFile());
+        if(hint != null) {
+            changedPaths.addAll(hint.paths);
+        }
+        
+        setChangedPaths(repository, changedPaths);
+    }
+    
+    /**
+     * Forget the paths of a repo. This should be called if the Grafico files are changed other than by exporting the model.
+     * @param gitFolder The repo's .git folder
+     */
+    void clear(File gitFolder) {
+        fHints.remove(gitFolder.getAbsoluteFile());
+    }
+    
+    private void setChangedPaths(Repository repository, Set<String> paths) throws IOException {
+        Hint hint = new Hint();
+        hint.head = repository.resolve(Constants.HEAD);
+        hint.indexChecksum = getIndexChecksum(repository);
+        hint.paths = paths;
+        
+        if(hint.indexChecksum != null) {
+            fHints.put(repository.getDirectory().getAbsoluteFile(), hint);
+        }
+        else {
+            clear(repository.getDirectory());
+        }
+    }
+    
+    /**
+     * @return The checksum of the index's contents at the end of the index file, or null if there is no index
+     */
+    private byte[] getIndexChecksum(Repository repository) throws IOException {
+        File indexFile = repository.getIndexFile();
+        if(!indexFile.isFile()) {
+            return null;
+        }
+        
+        try(RandomAccessFile file = new RandomAccessFile(indexFile, "r")) { //$NON-NLS-1$
+            if(file.length() < Constants.OBJECT_ID_LENGTH) {
+                return null;
+            }
+            
+            byte[] checksum = new byte[Constants.OBJECT_ID_LENGTH];
+            file.seek(file.length() - Constants.OBJECT_ID_LENGTH);
+            file.readFully(checksum);
+            return checksum;
+        }
+    }
+}
@@ -5,18 +5,33 @@
  */
 package org.archicontribs.modelrepository.merge;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
-import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
+import org.archicontribs.modelrepository.grafico.GraficoModelCache;
+import org.archicontribs.modelrepository.grafico.GraficoObjectWriter;
+import org.archicontribs.modelrepository.grafico.GraficoResourceLoader;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.window.Window;
+import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CheckoutCommand.Stage;
 import org.eclipse.jgit.api.Git;
@@ -25,16 +40,18 @@ import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.swt.widgets.Shell;
 
-import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IIdentifier;
+import com.archimatetool.model.IProfile;
 
 /**
  * Handle Merge Conflicts on a MergeResult
@@ -76,17 +93,33 @@ public class MergeConflictHandler {
             throw new IOException(Messages.MergeConflictHandler_0);
         }
         
-        // Their model needs to be extracted
-        fTheirModel = extractModel(getTheirRef());
+        // Merge the conflicting objects and leave those that can't be merged to the user
+        List<String> conflicts = mergeObjects(fMergeResult.getConflicts().keySet());
         
         // Create Merge Infos
         fMergeObjectInfos = new ArrayList<MergeObjectInfo>();
-        for(String xmlPath : fMergeResult.getConflicts().keySet()) {
-            fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, this));
+        
+        if(!conflicts.isEmpty()) {
+            // Their model needs to be extracted
+            fTheirModel = extractModel(getTheirRef());
+            
+            for(String xmlPath : conflicts) {
+                fMergeObjectInfos.add(new MergeObjectInfo(xmlPath));
+            }
+            
+            loadMergeObjects();
         }
     }
     
+    /**
+     * Open the dialog for the user to choose ours or theirs for the objects that could not be merged
+     * @return true if the user chose, or if all objects were merged
+     */
     public boolean openConflictsDialog(String message) {
+        if(fMergeObjectInfos.isEmpty()) {
+            return true;
+        }
+        
         Dialog dialog = new ConflictsDialog(fShell, this, message);
         return dialog.open() == Window.OK ? true : false;
     }
@@ -111,7 +144,7 @@ public class MergeConflictHandler {
             }
         }
         
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(fArchiRepo.getLocalRepositoryFolder())) {
             if(!ours.isEmpty()) {
                 checkout(git, Stage.OURS, ours);
             }
@@ -132,7 +165,7 @@ public class MergeConflictHandler {
     
     public void resetToLocalState() throws IOException, GitAPIException {
         // Reset HARD  which will lose all changes
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryPool.INSTANCE.openGit(fArchiRepo.getLocalRepositoryFolder())) {
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(getLocalRef());
             resetCommand.setMode(ResetType.HARD);
@@ -140,6 +173,199 @@ public class MergeConflictHandler {
         }
     }
     
+    /**
+     * Three-way merge the objects in conflicting files from the base, our and their versions of the files in the index.
+     * Merged files are written and added to the index.
+     * A merged object that references an object in another file that might not be in the merged model is left to the user.
+     * @return The paths of the files that could not be merged
+     */
+    private List<String> mergeObjects(Set<String> paths) throws IOException, GitAPIException {
+        List<String> merged = new ArrayList<>();
+        List<String> unmerged = new ArrayList<>();
+        
+        // Path -> merged object
+        Map<String, EObject> results = new LinkedHashMap<>();
+        
+        GraficoObjectWriter writer = new GraficoObjectWriter();
+        
+        try(Repository repository = RepositoryPool.INSTANCE.openRepository(fArchiRepo.getLocalRepositoryFolder());
+                ObjectReader reader = repository.newObjectReader()) {
+            
+            // Path -> blob ids of the base, our and their versions
+            Map<String, ObjectId[]> stages = new HashMap<>();
+            
+            DirCache dirCache = repository.readDirCache();
+            for(int i = 0; i < dirCache.getEntryCount(); i++) {
+                DirCacheEntry entry = dirCache.getEntry(i);
+                if(entry.getStage() != DirCacheEntry.STAGE_0 && paths.contains(entry.getPathString())) {
+                    stages.computeIfAbsent(entry.getPathString(), path -> new ObjectId[3])[entry.getStage() - 1] = entry.getObjectId();
+                }
+            }
+            
+            for(String path : paths) {
+                checkCanceled();
+                
+                ObjectId[] ids = stages.get(path);
+                EObject result = null;
+                
+                // Only Grafico object files that are in both ours and theirs can be merged
+                if(ids != null && ids[1] != null && ids[2] != null && path.endsWith(".xml")) { //$NON-NLS-1$
+                    File file = new File(fArchiRepo.getLocalRepositoryFolder(), path);
+                    URI uri = URI.createFileURI(file.getAbsolutePath());
+                    
+                    try {
+                        EObject base = ids[0] != null ? loadEObject(reader, ids[0], uri) : null;
+                        result = new ModelObjectMerger(base, loadEObject(reader, ids[1], uri), loadEObject(reader, ids[2], uri)).merge();
+                        
+                        if(result != null) {
+                            results.put(path, result);
+                        }
+                    }
+                    // Leave it to the user
+                    catch(IOException ex) {
+                        ex.printStackTrace();
+                        result = null;
+                    }
+                }
+                
+                if(result == null) {
+                    unmerged.add(path);
+                }
+            }
+            
+            if(!results.isEmpty()) {
+                Set<String> ids = getReferenceableIDs(reader, dirCache, stages);
+                
+                for(Entry<String, EObject> entry : results.entrySet()) {
+                    String path = entry.getKey();
+                    
+                    if(!hasUnresolvedReferences(entry.getValue(), ids)) {
+                        File file = new File(fArchiRepo.getLocalRepositoryFolder(), path);
+                        writer.write(entry.getValue(), URI.createFileURI(file.getAbsolutePath()));
+                        writer.writeTo(file);
+                        merged.add(path);
+                    }
+                    else {
+                        unmerged.add(path);
+                    }
+                }
+            }
+        }
+        
+        // Adding the merged files to the index resolves their conflicts
+        if(!merged.isEmpty()) {
+            try(Git git = RepositoryPool.INSTANCE.openGit(fArchiRepo.getLocalRepositoryFolder())) {
+                AddCommand addCommand = git.add();
+                for(String path : merged) {
+                    addCommand.addFilepattern(path);
+                }
+                addCommand.call();
+            }
+        }
+        
+        return unmerged;
+    }
+    
+    /**
+     * @return The IDs of the objects in other files that a merged object can reference.
+     * These are the objects of the files in the index that are not in conflict, and the objects of the conflicting files
+     * that are in both ours and theirs so that they are in the merged model whichever version is used.
+     * An element or diagram is identified by its file name. Profiles are in the model's file.
+     */
+    private Set<String> getReferenceableIDs(ObjectReader reader, DirCache dirCache, Map<String, ObjectId[]> stages) throws IOException {
+        Set<String> ids = new HashSet<>();
+        String modelPath = IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+        
+        for(int i = 0; i < dirCache.getEntryCount(); i++) {
+            DirCacheEntry entry = dirCache.getEntry(i);
+            String path = entry.getPathString();
+            
+            if(entry.getStage() == DirCacheEntry.STAGE_0) {
+                if(path.equals(modelPath)) {
+                    ids.addAll(getModelIDs(reader, entry.getObjectId(), path));
+                }
+                else {
+                    addFileObjectID(path, ids);
+                }
+            }
+        }
+        
+        for(Entry<String, ObjectId[]> entry : stages.entrySet()) {
+            String path = entry.getKey();
+            ObjectId[] stageIds = entry.getValue();
+            
+            if(stageIds[1] != null && stageIds[2] != null) {
+                if(path.equals(modelPath)) {
+                    Set<String> modelIds = getModelIDs(reader, stageIds[1], path);
+                    modelIds.retainAll(getModelIDs(reader, stageIds[2], path));
+                    ids.addAll(modelIds);
+                }
+                else {
+                    addFileObjectID(path, ids);
+                }
+            }
+        }
+        
+        return ids;
+    }
+    
+    /**
+     * Add the ID of an element or diagram from its file name, "Type_id.xml"
+     */
+    private void addFileObjectID(String path, Set<String> ids) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int index = name.indexOf('_');
+        
+        if(index != -1 && name.endsWith(".xml")) { //$NON-NLS-1$
+            ids.add(name.substring(index + 1, name.length() - ".xml".length())); //$NON-NLS-1$
+        }
+    }
+    
+    /**
+     * @return The IDs of the model and its profiles in a version of the model's file
+     */
+    private Set<String> getModelIDs(ObjectReader reader, ObjectId id, String path) throws IOException {
+        Set<String> ids = new HashSet<>();
+        
+        File file = new File(fArchiRepo.getLocalRepositoryFolder(), path);
+        EObject eObject = loadEObject(reader, id, URI.createFileURI(file.getAbsolutePath()));
+        
+        if(eObject instanceof IArchimateModel) {
+            ids.add(((IArchimateModel)eObject).getId());
+            for(IProfile profile : ((IArchimateModel)eObject).getProfiles()) {
+                ids.add(profile.getId());
+            }
+        }
+        
+        return ids;
+    }
+    
+    /**
+     * @return true if a merged object references an object in another file that is not one of the ids
+     */
+    private boolean hasUnresolvedReferences(EObject eObject, Set<String> ids) {
+        // References to objects in other files are proxies that are resolved by the fragment of their URIs
+        for(EObject proxy : EcoreUtil.ProxyCrossReferencer.find(eObject).keySet()) {
+            if(!ids.contains(EcoreUtil.getURI(proxy).fragment())) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private EObject loadEObject(ObjectReader reader, ObjectId id, URI uri) throws IOException {
+        try(InputStream in = reader.open(id).openStream()) {
+            return GraficoResourceLoader.loadEObject(in, uri);
+        }
+    }
+    
+    private void checkCanceled() throws CanceledException {
+        if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
+            throw new CanceledException(Messages.MergeConflictHandler_2);
+        }
+    }
+    
     // Check out conflicting files either from us or them
     private void checkout(Git git, Stage stage, List<String> paths) throws GitAPIException {
         CheckoutCommand checkoutCommand = git.checkout();
@@ -156,6 +382,58 @@ public class MergeConflictHandler {
         return fMergeObjectInfos;
     }
     
+    /**
+     * Load the ours and theirs objects of all the Merge Infos at once.
+     * The files on each side are read in one walk of the side's tree and their objects looked up in an index of the model by ID.
+     */
+    private void loadMergeObjects() throws IOException {
+        Map<String, MergeObjectInfo> infos = new HashMap<>();
+        for(MergeObjectInfo info : fMergeObjectInfos) {
+            infos.put(info.getXMLPath(), info);
+        }
+        
+        if(infos.isEmpty()) {
+            return;
+        }
+        
+        loadMergeObjects(getLocalRef(), MergeObjectInfo.OURS, getOurModel(), infos);
+        loadMergeObjects(getTheirRef(), MergeObjectInfo.THEIRS, getTheirModel(), infos);
+    }
+    
+    /**
+     * Load the XML files of one side from the ref so we can get the objects' IDs
+     * Once we have the IDs we can get the real EObjects from either "theirs" or "ours" full model.
+     * We do this because some EObjects have proxy references to other EObjects that would need resolving
+     * A file that is not found was deleted by us or them and its object is left as null
+     */
+    private void loadMergeObjects(String ref, int choice, IArchimateModel model, Map<String, MergeObjectInfo> infos) throws IOException {
+        Map<String, byte[]> contents = fArchiRepo.getFileContents(infos.keySet(), ref);
+        if(contents.isEmpty()) {
+            return;
+        }
+        
+        Map<String, EObject> objectsByID = getObjectsByID(model);
+        
+        for(Entry<String, byte[]> entry : contents.entrySet()) {
+            IIdentifier eObject = GraficoResourceLoader.loadEObject(new ByteArrayInputStream(entry.getValue()));
+            infos.get(entry.getKey()).setEObject(choice, objectsByID.get(eObject.getId()));
+        }
+    }
+    
+    private Map<String, EObject> getObjectsByID(IArchimateModel model) {
+        Map<String, EObject> objects = new HashMap<>();
+        objects.put(model.getId(), model);
+        
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                objects.put(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        return objects;
+    }
+    
     IArchimateModel getOurModel() {
         return fOurModel;
     }
@@ -170,11 +448,7 @@ public class MergeConflictHandler {
      * @throws CanceledException 
      */
     private IArchimateModel extractModel(String ref) throws IOException, CanceledException {
-        File tmpFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tmp"); //$NON-NLS-1$ //$NON-NLS-2$
-        FileUtils.deleteFolder(tmpFolder);
-        tmpFolder.mkdirs();
-        
-        try(Repository repository = Git.open(fArchiRepo.getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = RepositoryPool.INSTANCE.openRepository(fArchiRepo.getLocalRepositoryFolder())) {
             RevCommit commit = null;
             
             // Get the commit
@@ -193,34 +467,11 @@ public class MergeConflictHandler {
                 throw new IOException(Messages.MergeConflictHandler_1);
             }
             
-            // Walk the tree and get the contents of the commit
-            try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);
-
-                while(treeWalk.next()) {
-                    if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
-                        throw new CanceledException(Messages.MergeConflictHandler_2);
-                    }
-                    
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    
-                    File file = new File(tmpFolder, treeWalk.getPathString());
-                    file.getParentFile().mkdirs();
-                    
-                    try(FileOutputStream out = new FileOutputStream(file)) {
-                        loader.copyTo(out);
-                    }
-                }
-            }
+            checkCanceled();
+            
+            // Load it from the model cache or straight from the commit's tree
+            return new GraficoModelCache(fArchiRepo).getModel(repository, commit.getTree());
         }
-
-        // Load it
-        GraficoModelImporter importer = new GraficoModelImporter(tmpFolder);
-        IArchimateModel model = importer.importAsModel();
-        FileUtils.deleteFolder(tmpFolder);
-        return model;
     }
     
 }
@@ -5,16 +5,8 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-
-import org.archicontribs.modelrepository.grafico.GraficoResourceLoader;
 import org.eclipse.emf.ecore.EObject;
 
-import com.archimatetool.model.IArchimateModel;
-import com.archimatetool.model.IIdentifier;
-import com.archimatetool.model.util.ArchimateModelUtils;
-
 /**
  * Information about a merge conflict object
  * 
@@ -22,8 +14,6 @@ import com.archimatetool.model.util.ArchimateModelUtils;
  */
 class MergeObjectInfo {
 
-    private MergeConflictHandler handler;
-
     private String xmlPath;
     
     // Referenced EObjects - ours and theirs
@@ -35,12 +25,9 @@ class MergeObjectInfo {
     // User's choice
     private int userChoice = OURS;
 
-    MergeObjectInfo(String xmlPath, MergeConflictHandler handler) throws IOException {
-        this.handler = handler;
+    // The objects are loaded by the handler for all Merge Infos at once
+    MergeObjectInfo(String xmlPath) {
         this.xmlPath = xmlPath;
-        
-        objects[OURS] = loadEObject(handler.getLocalRef());
-        objects[THEIRS] = loadEObject(handler.getTheirRef());
     }
     
     String getXMLPath() {
@@ -51,6 +38,10 @@ class MergeObjectInfo {
         return objects[choice];
     }
     
+    void setEObject(int choice, EObject eObject) {
+        objects[choice] = eObject;
+    }
+    
     // Default is ours, or theirs if ours is null
     EObject getDefaultEObject() {
         return objects[OURS] != null ? objects[OURS] : objects[THEIRS];
@@ -74,39 +65,4 @@ class MergeObjectInfo {
     int getUserChoice() {
         return userChoice;
     }
-
-    /**
-     * Load the EObject from the ours or theirs XML file so we can get its ID
-     * Once we have its ID we can load the real EObject from either "theirs" or "ours" full model.
-     * We do this because some EObjects have proxy references to other EObjects that would need resolving
-     * Returns null if the file contents does not exist (either we or they deleted the object)
-     * ref is either ours or theirs
-     */
-    private EObject loadEObject(String ref) throws IOException {
-        // Load the contents of the ref not the actual file because "theirs" is not an actual file
-        byte[] contents = handler.getArchiRepository().getFileContents(xmlPath, ref);
-        // Not found so was deleted by us or them
-        if(contents == null) {
-            return null;
-        }
-        
-        ByteArrayInputStream bis = new ByteArrayInputStream(contents);
-        
-        IIdentifier eObject = GraficoResourceLoader.loadEObject(bis);
-        
-        // Get the ID
-        String id = eObject.getId();
-        
-        // Now get the full object from the appropriate model
-        IArchimateModel model = null;
-        
-        if(ref == handler.getLocalRef()) { // Ours
-            model = handler.getOurModel();
-        }
-        else {
-            model = handler.getTheirModel();
-        }
-
-        return ArchimateModelUtils.getObjectByID(model, id);
-    }
 }
@@ -0,0 +1,450 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import com.archimatetool.model.IProperty;
+
+/**
+ * Three-way merge of an object that is persisted in its own Grafico file
+ * 
+ * The base, our and their versions of the object are merged feature by feature. A feature that was only changed on one side
+ * takes that side's value. Contained lists of objects with identifiers, such as the child objects and connections of a diagram,
+ * are merged object by object so that objects added, changed or deleted on either side are all kept.
+ * Properties don't have identifiers and are merged in the same way by their keys, unless a key is used more than once.
+ * An object can't be merged if the same feature of the same object was changed differently on both sides,
+ * or if an object was changed on one side and deleted on the other.
+ * 
+ * References to objects in other files are proxies and are compared by their URIs.
+ * References to objects in the same file are compared by the objects' identifiers.
+ * 
+ * @author Phillip Beauvoir
+ */
+class ModelObjectMerger {
+    
+    /**
+     * Compares objects by their features, and references that are not containment references by the identifiers of the referenced objects
+     */
+    @SuppressWarnings("serial")
+    private static class MergeEqualityHelper extends EcoreUtil.EqualityHelper {
+        @Override
+        protected boolean haveEqualFeature(EObject eObject1, EObject eObject2, EStructuralFeature feature) {
+            return feature.isTransient() || super.haveEqualFeature(eObject1, eObject2, feature);
+        }
+        
+        @Override
+        protected boolean haveEqualReference(EObject eObject1, EObject eObject2, EReference reference) {
+            if(reference.isContainment()) {
+                return super.haveEqualReference(eObject1, eObject2, reference);
+            }
+            return getKeys(eObject1, reference).equals(getKeys(eObject2, reference));
+        }
+    }
+    
+    /**
+     * A reference of a result object to set to the objects referenced by their object
+     */
+    private static class PendingReference {
+        EObject result;
+        EReference reference;
+        List<EObject> theirValues;
+        
+        PendingReference(EObject result, EReference reference, List<EObject> theirValues) {
+            this.result = result;
+            this.reference = reference;
+            this.theirValues = theirValues;
+        }
+    }
+    
+    private EObject fBase, fOurs, fTheirs;
+    
+    private EObject fResult;
+    
+    private boolean fHasConflicts;
+    
+    /**
+     * Copies their objects that are added to the result. Their references are set afterwards.
+     */
+    private EcoreUtil.Copier fTheirCopier = new EcoreUtil.Copier(false);
+    
+    private List<PendingReference> fPendingReferences = new ArrayList<>();
+    
+    /**
+     * @param base The object in the common ancestor, or null if it was added on both sides
+     * @param ours Our object, or null if we deleted it
+     * @param theirs Their object, or null if they deleted it
+     */
+    ModelObjectMerger(EObject base, EObject ours, EObject theirs) {
+        fBase = base;
+        fOurs = ours;
+        fTheirs = theirs;
+    }
+    
+    /**
+     * @return The merged object, or null if the object can't be merged
+     */
+    EObject merge() {
+        // Deleted on one side and changed on the other
+        if(fOurs == null || fTheirs == null || fOurs.eClass() != fTheirs.eClass()) {
+            return null;
+        }
+        
+        // Start with a copy of ours and apply their changes to it
+        EcoreUtil.Copier ourCopier = new EcoreUtil.Copier(false);
+        fResult = ourCopier.copy(fOurs);
+        ourCopier.copyReferences();
+        
+        mergeObject(fBase, fOurs, fTheirs, fResult);
+        
+        if(!fHasConflicts) {
+            resolveReferences();
+        }
+        
+        return fHasConflicts ? null : fResult;
+    }
+    
+    private void mergeObject(EObject base, EObject ours, EObject theirs, EObject result) {
+        for(EStructuralFeature feature : result.eClass().getEAllStructuralFeatures()) {
+            if(fHasConflicts) {
+                return;
+            }
+            
+            if(!isMergeable(feature) || isEqual(feature, ours, theirs)) {
+                continue;
+            }
+            
+            boolean oursChanged = base == null || !isEqual(feature, base, ours);
+            boolean theirsChanged = base == null || !isEqual(feature, base, theirs);
+            
+            // Only we changed it and the result has our value
+            if(!theirsChanged) {
+                continue;
+            }
+            
+            // Only they changed it
+            if(!oursChanged) {
+                setTheirValue(feature, theirs, result);
+            }
+            // Both changed a list of objects with identifiers or keys, so merge the objects
+            else if(isIdentifiableList(feature, base, ours, theirs)) {
+                mergeList((EReference)feature, base, ours, theirs, result);
+            }
+            // Both changed it differently
+            else {
+                fHasConflicts = true;
+            }
+        }
+    }
+    
+    private void mergeList(EReference reference, EObject base, EObject ours, EObject theirs, EObject result) {
+        List<EObject> baseList = base != null ? getList(base, reference) : Collections.emptyList();
+        List<EObject> theirList = getList(theirs, reference);
+        EList<EObject> resultList = getList(result, reference);
+        
+        Map<String, EObject> baseObjects = getObjectsByKey(baseList);
+        Map<String, EObject> ourObjects = getObjectsByKey(getList(ours, reference));
+        Map<String, EObject> theirObjects = getObjectsByKey(theirList);
+        Map<String, EObject> resultObjects = getObjectsByKey(resultList);
+        
+        // Objects added or changed by them. Added objects are put after the object that is before them in their list.
+        EObject previous = null;
+        
+        for(EObject theirObject : theirList) {
+            String id = getKey(theirObject);
+            EObject baseObject = baseObjects.get(id);
+            EObject ourObject = ourObjects.get(id);
+            
+            if(ourObject == null) {
+                // Added by them
+                if(baseObject == null) {
+                    EObject copy = copyTheirs(theirObject);
+                    resultList.add(previous != null ? resultList.indexOf(previous) + 1 : 0, copy);
+                    previous = copy;
+                }
+                // Deleted by us and changed by them
+                else if(!isEqual(baseObject, theirObject)) {
+                    fHasConflicts = true;
+                    return;
+                }
+            }
+            // Changed to a different type of object
+            else if(ourObject.eClass() != theirObject.eClass()) {
+                fHasConflicts = true;
+                return;
+            }
+            else {
+                EObject resultObject = resultObjects.get(id);
+                mergeObject(baseObject, ourObject, theirObject, resultObject);
+                previous = resultObject;
+            }
+        }
+        
+        // Objects deleted by them
+        for(EObject baseObject : baseList) {
+            String id = getKey(baseObject);
+            EObject ourObject = ourObjects.get(id);
+            
+            if(ourObject != null && !theirObjects.containsKey(id)) {
+                // Changed by us and deleted by them
+                if(!isEqual(baseObject, ourObject)) {
+                    fHasConflicts = true;
+                    return;
+                }
+                
+                resultList.remove(resultObjects.get(id));
+            }
+        }
+    }
+    
+    private void setTheirValue(EStructuralFeature feature, EObject theirs, EObject result) {
+        // References are set when all of the result's objects are known
+        if(feature instanceof EReference && !((EReference)feature).isContainment()) {
+            result.eUnset(feature);
+            fPendingReferences.add(new PendingReference(result, (EReference)feature, getValues(theirs, feature)));
+            return;
+        }
+        
+        if(!theirs.eIsSet(feature)) {
+            result.eUnset(feature);
+        }
+        else if(feature instanceof EReference) {
+            List<EObject> copies = new ArrayList<>();
+            for(EObject value : getValues(theirs, feature)) {
+                copies.add(copyTheirs(value));
+            }
+            result.eSet(feature, feature.isMany() ? copies : copies.get(0));
+        }
+        else {
+            result.eSet(feature, theirs.eGet(feature));
+        }
+    }
+    
+    /**
+     * Copy their object and its contents. Its references are set later.
+     */
+    private EObject copyTheirs(EObject theirObject) {
+        EObject copy = fTheirCopier.copy(theirObject);
+        
+        for(Iterator<EObject> iter = EcoreUtil.getAllProperContents(theirObject, false); iter.hasNext();) {
+            addPendingReferences(iter.next());
+        }
+        addPendingReferences(theirObject);
+        
+        return copy;
+    }
+    
+    private void addPendingReferences(EObject theirObject) {
+        EObject copy = fTheirCopier.get(theirObject);
+        
+        for(EReference reference : theirObject.eClass().getEAllReferences()) {
+            if(isMergeable(reference) && !reference.isContainment() && theirObject.eIsSet(reference)) {
+                fPendingReferences.add(new PendingReference(copy, reference, getValues(theirObject, reference)));
+            }
+        }
+    }
+    
+    /**
+     * Set the references to objects in the result, and point references to objects that were replaced or removed
+     * at the result object with the same identifier
+     */
+    @SuppressWarnings("unchecked")
+    private void resolveReferences() {
+        Map<String, EObject> resultObjects = new HashMap<>();
+        Set<EObject> contents = new HashSet<>();
+        
+        for(Iterator<EObject> iter = EcoreUtil.getAllProperContents(Collections.singleton(fResult), false); iter.hasNext();) {
+            EObject eObject = iter.next();
+            contents.add(eObject);
+            
+            String id = EcoreUtil.getID(eObject);
+            if(id != null) {
+                resultObjects.put(id, eObject);
+            }
+        }
+        
+        for(PendingReference pending : fPendingReferences) {
+            List<EObject> values = resolve(pending.theirValues, resultObjects, contents);
+            if(values == null) {
+                return;
+            }
+            
+            if(pending.reference.isMany()) {
+                ((EList<EObject>)pending.result.eGet(pending.reference)).addAll(values);
+            }
+            else {
+                pending.result.eSet(pending.reference, values.isEmpty() ? null : values.get(0));
+            }
+        }
+        
+        // Our references to objects that have been replaced by their copies
+        for(EObject eObject : contents) {
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(!isMergeable(reference) || reference.isContainment() || !eObject.eIsSet(reference)) {
+                    continue;
+                }
+                
+                List<EObject> oldValues = getValues(eObject, reference);
+                List<EObject> values = resolve(oldValues, resultObjects, contents);
+                if(values == null) {
+                    return;
+                }
+                
+                if(!values.equals(oldValues)) {
+                    eObject.eSet(reference, reference.isMany() ? values : values.get(0));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return The referenced objects in the result, or null if a referenced object is not in the result
+     */
+    private List<EObject> resolve(List<EObject> values, Map<String, EObject> resultObjects, Set<EObject> contents) {
+        List<EObject> resolved = new ArrayList<>();
+        
+        for(EObject value : values) {
+            // A proxy to an object in another file, or already in the result
+            if(value.eIsProxy() || contents.contains(value)) {
+                resolved.add(value);
+                continue;
+            }
+            
+            EObject resultObject = resultObjects.get(EcoreUtil.getID(value));
+            
+            // The object was deleted on the other side
+            if(resultObject == null) {
+                fHasConflicts = true;
+                return null;
+            }
+            
+            resolved.add(resultObject);
+        }
+        
+        return resolved;
+    }
+    
+    private boolean isIdentifiableList(EStructuralFeature feature, EObject base, EObject ours, EObject theirs) {
+        if(!(feature instanceof EReference) || !((EReference)feature).isContainment() || !feature.isMany()) {
+            return false;
+        }
+        
+        for(EObject eObject : new EObject[] { base, ours, theirs }) {
+            if(eObject != null) {
+                List<EObject> list = getList(eObject, (EReference)feature);
+                if(getObjectsByKey(list).size() != list.size()) {
+                    return false;
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    private boolean isEqual(EStructuralFeature feature, EObject eObject1, EObject eObject2) {
+        if(!(feature instanceof EReference)) {
+            return Objects.equals(eObject1.eGet(feature), eObject2.eGet(feature));
+        }
+        
+        if(!((EReference)feature).isContainment()) {
+            return getKeys(eObject1, (EReference)feature).equals(getKeys(eObject2, (EReference)feature));
+        }
+        
+        return new MergeEqualityHelper().equals(getValues(eObject1, feature), getValues(eObject2, feature));
+    }
+    
+    private boolean isEqual(EObject eObject1, EObject eObject2) {
+        return new MergeEqualityHelper().equals(eObject1, eObject2);
+    }
+    
+    private static boolean isMergeable(EStructuralFeature feature) {
+        return feature.isChangeable() && !feature.isTransient() && !feature.isDerived()
+                && !(feature instanceof EReference && ((EReference)feature).isContainer());
+    }
+    
+    /**
+     * @return The keys of the objects referenced by a reference. A proxy's key is its URI, and another object's key is its identifier.
+     */
+    private static List<Object> getKeys(EObject eObject, EReference reference) {
+        List<Object> keys = new ArrayList<>();
+        
+        for(EObject value : getValues(eObject, reference)) {
+            if(value.eIsProxy()) {
+                URI uri = ((InternalEObject)value).eProxyURI();
+                keys.add(uri.fragment() != null ? uri.fragment() : uri.toString());
+            }
+            else {
+                String id = EcoreUtil.getID(value);
+                keys.add(id != null ? id : value);
+            }
+        }
+        
+        return keys;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<EObject> getValues(EObject eObject, EStructuralFeature feature) {
+        Object value = eObject.eGet(feature, false);
+        
+        if(feature.isMany()) {
+            return new ArrayList<>((List<EObject>)value);
+        }
+        
+        return value != null ? Collections.singletonList((EObject)value) : Collections.emptyList();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static EList<EObject> getList(EObject eObject, EReference reference) {
+        return (EList<EObject>)eObject.eGet(reference, false);
+    }
+    
+    /**
+     * @return The key that matches an object in a contained list with the same object in the other versions.
+     * This is a property's key, or another object's identifier.
+     */
+    private static String getKey(EObject eObject) {
+        if(eObject instanceof IProperty) {
+            return ((IProperty)eObject).getKey();
+        }
+        
+        return EcoreUtil.getID(eObject);
+    }
+    
+    /**
+     * @return Key -> object. Objects without a key or with the same key as another object are not included.
+     */
+    private static Map<String, EObject> getObjectsByKey(List<EObject> objects) {
+        Map<String, EObject> map = new HashMap<>();
+        Set<String> duplicates = new HashSet<>();
+        
+        for(EObject eObject : objects) {
+            String id = getKey(eObject);
+            if(id != null && map.put(id, eObject) != null) {
+                duplicates.add(id);
+            }
+        }
+        
+        map.keySet().removeAll(duplicates);
+        
+        return map;
+    }
+}
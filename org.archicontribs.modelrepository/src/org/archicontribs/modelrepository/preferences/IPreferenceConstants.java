@@ -32,9 +32,49 @@ public interface IPreferenceConstants {
     
     String PREFS_EXPORT_MAX_THREADS = "exportMaxThreads";
     
+    /*
+      Only write changed Grafico files on export. If false the "model" and "images" folders are deleted and all files re-written.
+      
+      Can be set in plugin_customization.ini as:
+         org.archicontribs.modelrepository/exportIncremental=false
+     */
+    String PREFS_EXPORT_INCREMENTAL = "exportIncremental";
+    
+    String PREFS_IMPORT_MAX_THREADS = "importMaxThreads";
+    
+    /*
+      Maximum size in MB of each repository's cache of models imported from commits. 0 disables the cache.
+      
+      Can be set in plugin_customization.ini as:
+         org.archicontribs.modelrepository/modelCacheSize=200
+     */
+    String PREFS_MODEL_CACHE_SIZE = "modelCacheSize";
+    
     String PREFS_FETCH_IN_BACKGROUND = "fetchInBackground";
     String PREFS_FETCH_IN_BACKGROUND_INTERVAL = "fetchInBackgroundInterval";
     
+    /*
+      Background fetch limits. The maximum number of repos fetched at the same time, in total and from each host,
+      and the time in seconds after which a repo's fetch is cancelled.
+      
+      Can be set in plugin_customization.ini as:
+         org.archicontribs.modelrepository/fetchMaxThreads=4
+         org.archicontribs.modelrepository/fetchMaxThreadsPerHost=2
+         org.archicontribs.modelrepository/fetchTimeout=120
+     */
+    String PREFS_FETCH_MAX_THREADS = "fetchMaxThreads";
+    String PREFS_FETCH_MAX_THREADS_PER_HOST = "fetchMaxThreadsPerHost";
+    String PREFS_FETCH_TIMEOUT = "fetchTimeout";
+    
+    /*
+      Maximum interval in seconds between background fetches of a repo that has not changed.
+      A repo's interval starts at fetchInBackgroundInterval and doubles each time its Remote has not changed.
+      
+      Can be set in plugin_customization.ini as:
+         org.archicontribs.modelrepository/fetchMaxInterval=1800
+     */
+    String PREFS_FETCH_MAX_INTERVAL = "fetchMaxInterval";
+    
     /*
        Password constraints
     
@@ -43,9 +43,16 @@ implements IPreferenceConstants {
 		store.setDefault(PREFS_PROXY_HOST, "localhost");
 		
 		store.setDefault(PREFS_EXPORT_MAX_THREADS, 10);
+		store.setDefault(PREFS_EXPORT_INCREMENTAL, true);
+		store.setDefault(PREFS_IMPORT_MAX_THREADS, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 10)));
+		store.setDefault(PREFS_MODEL_CACHE_SIZE, 100);
 		
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND, false);
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND_INTERVAL, 60);
+		store.setDefault(PREFS_FETCH_MAX_THREADS, 4);
+		store.setDefault(PREFS_FETCH_MAX_THREADS_PER_HOST, 2);
+		store.setDefault(PREFS_FETCH_TIMEOUT, 120);
+		store.setDefault(PREFS_FETCH_MAX_INTERVAL, 1800);
 		
 		store.setDefault(PREFS_PASSWORD_MIN_LENGTH, 0);
 		store.setDefault(PREFS_PASSWORD_MIN_LOWERCASE_CHARS, 0);
@@ -15,6 +15,11 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.layout.TableColumnLayout;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
@@ -24,7 +29,6 @@ import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -47,6 +51,13 @@ public class HistoryTableViewer extends TableViewer {
     
     private BranchInfo fSelectedBranch;
     
+    private boolean fSelectFirstRow;
+    
+    /**
+     * Number of commits loaded at a time
+     */
+    private static final int PAGE_SIZE = 500;
+    
     /**
      * Constructor
      */
@@ -104,17 +115,10 @@ public class HistoryTableViewer extends TableViewer {
             ex.printStackTrace();
         }
         
-        setInput(archiRepo);
+        // Select first row when the first page of commits is loaded
+        fSelectFirstRow = true;
         
-        // Select first row - this will ensure we don't select the current row index from the previously selected repo
-        Display.getCurrent().asyncExec(() -> {
-            if(!getTable().isDisposed()) {
-                // Avoid bogus horizontal scrollbar cheese
-                getTable().getParent().layout();
-                
-                getTable().setSelection(0);
-            }
-        });
+        setInput(archiRepo);
     }
     
     public void setSelectedBranch(BranchInfo branchInfo) {
@@ -133,72 +137,233 @@ public class HistoryTableViewer extends TableViewer {
     
     /**
      * The Model for the Table.
+     * Commits are loaded a page at a time in a background Job when the table shows rows near the end of the loaded commits.
      */
     class HistoryContentProvider implements ILazyContentProvider {
-        List<RevCommit> commits;
+        List<RevCommit> commits = new ArrayList<RevCommit>();
+        CommitLoader loader;
         
         @Override
         public void inputChanged(Viewer v, Object oldInput, Object newInput) {
-            commits = getCommits(newInput);
-            setItemCount(commits.size());
+            if(loader != null) {
+                loader.close();
+                loader = null;
+            }
+            
+            commits = new ArrayList<RevCommit>();
+            fLocalCommit = null;
+            fOriginCommit = null;
+            setItemCount(0);
+            
+            if(!(newInput instanceof IArchiRepository) || fSelectedBranch == null) {
+                return;
+            }
+            
+            IArchiRepository repo = (IArchiRepository)newInput;
+            
+            // Local Repo was deleted
+            if(!repo.getLocalRepositoryFolder().exists()) {
+                return;
+            }
+            
+            loader = new CommitLoader(repo, fSelectedBranch);
+            loader.loadNextPage();
         }
 
         @Override
         public void dispose() {
+            if(loader != null) {
+                loader.close();
+                loader = null;
+            }
         }
         
-        List<RevCommit> getCommits(Object parent) {
-            List<RevCommit> commits = new ArrayList<RevCommit>();
-            fLocalCommit = null;
-            fOriginCommit = null;
+        /**
+         * A page of commits was loaded
+         */
+        void pageLoaded(CommitLoader pageLoader, List<RevCommit> page) {
+            // Input changed or table disposed
+            if(pageLoader != loader || getTable().isDisposed()) {
+                return;
+            }
+            
+            boolean isFirstPage = commits.isEmpty();
             
-            if(!(parent instanceof IArchiRepository) || fSelectedBranch == null) {
-                return commits;
+            if(isFirstPage) {
+                fLocalCommit = loader.localCommit;
+                fOriginCommit = loader.originCommit;
             }
             
-            IArchiRepository repo = (IArchiRepository)parent;
+            commits.addAll(page);
+            setItemCount(commits.size());
             
-            // Local Repo was deleted
-            if(!repo.getLocalRepositoryFolder().exists()) {
-                return commits;
+            // Select first row - this will ensure we don't select the current row index from the previously selected repo
+            if(isFirstPage && fSelectFirstRow && !commits.isEmpty()) {
+                fSelectFirstRow = false;
+                
+                // Avoid bogus horizontal scrollbar cheese
+                getTable().getParent().layout();
+                
+                getTable().setSelection(0);
             }
+        }
 
-            try(Repository repository = Git.open(repo.getLocalRepositoryFolder()).getRepository()) {
-                // a RevWalk allows to walk over commits based on some filtering that is defined
-                try(RevWalk revWalk = new RevWalk(repository)) {
-                    // Find the local branch
-                    ObjectId objectID = repository.resolve(fSelectedBranch.getLocalBranchNameFor());
-                    if(objectID != null) {
-                        fLocalCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fLocalCommit); 
-                    }
+        @Override
+        public void updateElement(int index) {
+            if(index < commits.size()) {
+                replace(commits.get(index), index);
+            }
+            
+            // Load the next page before the end of the loaded commits is reached
+            if(loader != null && index >= commits.size() - PAGE_SIZE / 2) {
+                loader.loadNextPage();
+            }
+        }
+    }
+    
+    /**
+     * Walks the commits of the local and remote branches a page at a time.
+     * The RevWalk and Repository are kept open until all commits are loaded or the input changes.
+     */
+    class CommitLoader {
+        IArchiRepository repo;
+        BranchInfo branch;
+        
+        Repository repository;
+        RevWalk revWalk;
+        RevCommit localCommit, originCommit;
+        
+        boolean isLoading, isDone;
+        
+        // Set on the UI thread and read by the Job
+        volatile boolean isClosed;
+        
+        CommitLoader(IArchiRepository repo, BranchInfo branch) {
+            this.repo = repo;
+            this.branch = branch;
+        }
+        
+        /**
+         * Load the next page in a Job if not already loading. Called on the UI thread.
+         */
+        void loadNextPage() {
+            if(isLoading || isDone || isClosed) {
+                return;
+            }
+            
+            isLoading = true;
+            
+            Job job = new Job("Load History") { //$NON-NLS-1$
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    List<RevCommit> page = nextPage();
                     
-                    // Find the remote branch
-                    objectID = repository.resolve(fSelectedBranch.getRemoteBranchNameFor());
-                    if(objectID != null) {
-                        fOriginCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fOriginCommit);
+                    // Closed while loading the page
+                    if(isClosed) {
+                        closeWalk();
+                        return Status.OK_STATUS;
                     }
                     
-                    // Collect the commits
-                    for(RevCommit commit : revWalk ) {
-                        commits.add(commit);
+                    Display display = getTable().isDisposed() ? null : getTable().getDisplay();
+                    if(display != null && !display.isDisposed()) {
+                        display.asyncExec(() -> {
+                            isLoading = false;
+                            
+                            // Closed after the page was loaded
+                            if(isClosed) {
+                                closeWalk();
+                                return;
+                            }
+                            
+                            ((HistoryContentProvider)getContentProvider()).pageLoaded(CommitLoader.this, page);
+                        });
+                    }
+                    else {
+                        closeWalk();
                     }
                     
-                    revWalk.dispose();
+                    return Status.OK_STATUS;
+                }
+            };
+            
+            job.setSystem(true);
+            job.schedule();
+        }
+        
+        private List<RevCommit> nextPage() {
+            List<RevCommit> page = new ArrayList<RevCommit>();
+            
+            if(isClosed) {
+                return page;
+            }
+            
+            try {
+                if(revWalk == null) {
+                    open();
+                }
+                
+                RevCommit commit;
+                while(!isClosed && page.size() < PAGE_SIZE && (commit = revWalk.next()) != null) {
+                    page.add(commit);
+                }
+                
+                // All commits are loaded
+                if(page.size() < PAGE_SIZE) {
+                    isDone = true;
+                    closeWalk();
                 }
             }
             catch(IOException ex) {
                 ex.printStackTrace();
+                isDone = true;
+                closeWalk();
             }
             
-            return commits;
+            return page;
         }
-
-        @Override
-        public void updateElement(int index) {
-            if(commits != null) {
-                replace(commits.get(index), index);
+        
+        private void open() throws IOException {
+            repository = RepositoryPool.INSTANCE.openRepository(repo.getLocalRepositoryFolder());
+            
+            // a RevWalk allows to walk over commits based on some filtering that is defined
+            revWalk = new RevWalk(repository);
+            
+            // Find the local branch
+            ObjectId objectID = repository.resolve(branch.getLocalBranchNameFor());
+            if(objectID != null) {
+                localCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(localCommit); 
+            }
+            
+            // Find the remote branch
+            objectID = repository.resolve(branch.getRemoteBranchNameFor());
+            if(objectID != null) {
+                originCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(originCommit);
+            }
+        }
+        
+        /**
+         * Close the loader. Called on the UI thread.
+         * If a page is loading the Job stops walking and closes the RevWalk and Repository so that this doesn't wait for it.
+         */
+        void close() {
+            isClosed = true;
+            
+            if(!isLoading) {
+                closeWalk();
+            }
+        }
+        
+        private synchronized void closeWalk() {
+            if(revWalk != null) {
+                revWalk.close();
+                revWalk = null;
+            }
+            
+            if(repository != null) {
+                repository.close();
+                repository = null;
             }
         }
     }
@@ -5,9 +5,23 @@
  */
 package org.archicontribs.modelrepository.views.repositories;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.authentication.ProxyAuthenticator;
@@ -24,10 +38,13 @@ import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IWorkbench;
@@ -162,106 +179,406 @@ public class FetchJob extends Job {
         }
     }
     
+    /**
+     * When a repo is next due to be fetched, and the interval before it is due again if it has not changed
+     */
+    private static class FetchSchedule {
+        long nextTime;
+        long interval;
+    }
+    
+    /**
+     * A repo's fetch in a cycle
+     */
+    private static class RepoFetch {
+        IArchiRepository repo;
+        String url;
+        String host;
+        boolean isSSH;
+        FetchSchedule schedule;
+        long deadline;
+        
+        RepoFetch(IArchiRepository repo, String url, FetchSchedule schedule) {
+            this.repo = repo;
+            this.url = url;
+            this.schedule = schedule;
+            isSSH = GraficoUtils.isSSH(url);
+            
+            try {
+                host = new URIish(url).getHost();
+            }
+            catch(URISyntaxException ex) {
+            }
+            
+            if(host == null) {
+                host = ""; //$NON-NLS-1$
+            }
+        }
+    }
+    
+    /**
+     * Cancels a fetch when it takes too long or background fetch is stopped
+     */
+    private class FetchProgressMonitor extends EmptyProgressMonitor {
+        long deadline;
+        volatile boolean isTimedOut;
+        
+        FetchProgressMonitor(long deadline) {
+            this.deadline = deadline;
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            if(System.currentTimeMillis() > deadline) {
+                isTimedOut = true;
+                return true;
+            }
+            
+            return !canRun() || isStopped;
+        }
+    }
+    
+    /**
+     * Time to wait for a fetch that doesn't respond to being cancelled after its timeout
+     */
+    private static final long TIMEOUT_GRACE = 10000;
+    
+    /**
+     * Set when a fetch fails in a way that stops background fetching
+     */
+    private volatile boolean isStopped;
+    
+    /**
+     * Local repo folder -> FetchSchedule
+     */
+    private Map<File, FetchSchedule> fSchedules = new ConcurrentHashMap<>();
+    
+    /**
+     * Local repo folder -> fetch whose Job has not finished, including fetches that were given up on
+     * A repo is not fetched again until its fetch has finished. Guarded by this map.
+     */
+    private final Map<File, RepoFetch> fInFlight = new HashMap<>();
+    
+    /**
+     * Whether fetches are being started with the current ProxyAuthenticator settings. Guarded by fInFlight.
+     */
+    private boolean fIsFetching;
+    
+    /**
+     * Start time, base interval and maximum interval of the current cycle
+     */
+    private long fCycleTime, fBaseInterval, fMaxInterval;
+    
     @Override
     protected IStatus run(IProgressMonitor monitor) {
-        boolean needsRefresh = false;
+        isStopped = false;
+        
+        IPreferenceStore store = ModelRepositoryPlugin.getInstance().getPreferenceStore();
+        fCycleTime = System.currentTimeMillis();
+        fBaseInterval = store.getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_INTERVAL) * 1000L;
+        fMaxInterval = Math.max(fBaseInterval, store.getInt(IPreferenceConstants.PREFS_FETCH_MAX_INTERVAL) * 1000L);
+        
+        List<RepoFetch> httpFetches = new ArrayList<>();
+        List<RepoFetch> sshFetches = new ArrayList<>();
+        Set<File> folders = new HashSet<>();
         
         for(IArchiRepository repo : fViewer.getRepositories(fViewer.getRootFolder())) {
-            if(!canRun()) {
-                return Status.OK_STATUS;
+            folders.add(repo.getLocalRepositoryFolder());
+            
+            FetchSchedule schedule = fSchedules.computeIfAbsent(repo.getLocalRepositoryFolder(), folder -> {
+                FetchSchedule newSchedule = new FetchSchedule();
+                newSchedule.interval = fBaseInterval;
+                return newSchedule;
+            });
+            
+            // Not due yet
+            if(schedule.nextTime > fCycleTime) {
+                continue;
+            }
+            
+            // Still being fetched from an earlier cycle
+            synchronized(fInFlight) {
+                if(fInFlight.containsKey(repo.getLocalRepositoryFolder())) {
+                    continue;
+                }
             }
             
-            UsernamePassword npw = null;
-
             try {
                 String url = repo.getOnlineRepositoryURL();
-                
-                if(GraficoUtils.isHTTP(url)) {
-                    // Get credentials. In some public repos we can still fetch without needing a password so we try anyway
-                    EncryptedCredentialsStorage cs = EncryptedCredentialsStorage.forRepository(repo);
-                    npw = cs.getUsernamePassword();
+                if(url != null) {
+                    RepoFetch fetch = new RepoFetch(repo, url, schedule);
+                    (fetch.isSSH ? sshFetches : httpFetches).add(fetch);
                 }
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        
+        // Forget repos that have gone
+        fSchedules.keySet().retainAll(folders);
+        
+        Set<IArchiRepository> changedRepos = ConcurrentHashMap.newKeySet();
+        AtomicBoolean needsRefresh = new AtomicBoolean();
+        
+        // The ProxyAuthenticator settings are global and HTTP and SSH need different settings so fetch them separately
+        // Repos that are not fetched in this cycle because of fetches still running from an earlier cycle are still due in the next cycle
+        fetch(httpFetches, changedRepos, needsRefresh);
+        fetch(sshFetches, changedRepos, needsRefresh);
+        
+        // Remote branches might have been deleted or added
+        if(!changedRepos.isEmpty() && !fViewer.getControl().isDisposed()) {
+            fViewer.getControl().getDisplay().asyncExec(() -> {
+                for(IArchiRepository repo : changedRepos) {
+                    RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.BRANCHES_CHANGED, repo);
+                }
+            });
+        }
 
-                // Update ProxyAuthenticator
-                ProxyAuthenticator.update(url);
-
-                // Fetch
-                FetchResult fetchResult = repo.fetchFromRemote(npw, null, false);
+        if(needsRefresh.get()) {
+            fViewer.refreshInBackground();
+        }
 
-                // We got here, so the tree can be refreshed later
-                needsRefresh = true;
-                
-                // Remote branches might have been deleted or added
-                if(!fetchResult.getTrackingRefUpdates().isEmpty() && !fViewer.getControl().isDisposed()) {
-                    fViewer.getControl().getDisplay().asyncExec(() -> {
-                        RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.BRANCHES_CHANGED, repo);
-                    });
+        if(canRun() && !isStopped) {
+            schedule(fBaseInterval); // Schedule again in x milliseconds if possible. Repos that are not due are skipped.
+        }
+        
+        return Status.OK_STATUS;
+    }
+    
+    /**
+     * Fetch repos in parallel Jobs no more than the maximum number at a time in total and for each host.
+     * The repos are all HTTP or all SSH. They are not fetched if a fetch of the other kind is still running, as that needs the current ProxyAuthenticator settings.
+     */
+    private void fetch(List<RepoFetch> fetches, Set<IArchiRepository> changedRepos, AtomicBoolean needsRefresh) {
+        if(fetches.isEmpty()) {
+            return;
+        }
+        
+        IPreferenceStore store = ModelRepositoryPlugin.getInstance().getPreferenceStore();
+        int maxThreads = Math.max(1, store.getInt(IPreferenceConstants.PREFS_FETCH_MAX_THREADS));
+        int maxThreadsPerHost = Math.max(1, store.getInt(IPreferenceConstants.PREFS_FETCH_MAX_THREADS_PER_HOST));
+        long timeout = Math.max(1, store.getInt(IPreferenceConstants.PREFS_FETCH_TIMEOUT)) * 1000L;
+        
+        List<RepoFetch> queue = new ArrayList<>(fetches);
+        List<RepoFetch> running = new ArrayList<>();
+        Map<String, Integer> hostCounts = new HashMap<>();
+        BlockingQueue<RepoFetch> finished = new LinkedBlockingQueue<>();
+        
+        synchronized(fInFlight) {
+            for(RepoFetch fetch : fInFlight.values()) {
+                if(fetch.isSSH != fetches.get(0).isSSH) {
+                    return;
                 }
             }
-            catch(IOException | GitAPIException ex) {
-                ex.printStackTrace();
+            
+            // Update ProxyAuthenticator
+            fIsFetching = true;
+            ProxyAuthenticator.update(fetches.get(0).url);
+        }
+        
+        try {
+            while(true) {
+                if(!canRun() || isStopped) {
+                    queue.clear();
+                }
                 
-                if(ex instanceof TransportException) {
-                    if(PlatformUI.isWorkbenchRunning()) {
-                        // Disable background fetch
-                        disablePreference();
-    
-                        // Show message
-                        Display.getDefault().syncExec(() -> {
-                            String message = Messages.FetchJob_0 + " "; //$NON-NLS-1$
-                            message += Messages.FetchJob_1 + "\n\n"; //$NON-NLS-1$
-                            try {
-                                message += repo.getName() + "\n"; //$NON-NLS-1$
-                                message += repo.getOnlineRepositoryURL() + "\n"; //$NON-NLS-1$
-                            }
-                            catch(IOException ex1) {
-                                ex1.printStackTrace();
+                // Start as many fetches as we can
+                for(Iterator<RepoFetch> iter = queue.iterator(); iter.hasNext() && running.size() < maxThreads;) {
+                    RepoFetch fetch = iter.next();
+                    
+                    if(hostCounts.getOrDefault(fetch.host, 0) < maxThreadsPerHost) {
+                        iter.remove();
+                        hostCounts.merge(fetch.host, 1, Integer::sum);
+                        running.add(fetch);
+                        
+                        fetch.deadline = System.currentTimeMillis() + timeout;
+                        
+                        // If the fetch fails or is given up on try again after the repo's interval
+                        fetch.schedule.nextTime = fCycleTime + fetch.schedule.interval;
+                        
+                        synchronized(fInFlight) {
+                            fInFlight.put(fetch.repo.getLocalRepositoryFolder(), fetch);
+                        }
+                        
+                        Job job = new Job("Fetch Repository Job") { //$NON-NLS-1$
+                            @Override
+                            protected IStatus run(IProgressMonitor monitor) {
+                                try {
+                                    fetchRepo(fetch, changedRepos, needsRefresh);
+                                }
+                                finally {
+                                    finished.add(fetch);
+                                    
+                                    synchronized(fInFlight) {
+                                        fInFlight.remove(fetch.repo.getLocalRepositoryFolder());
+                                        
+                                        // This was the last of the fetches that were given up on
+                                        if(fInFlight.isEmpty() && !fIsFetching) {
+                                            ProxyAuthenticator.clear();
+                                        }
+                                    }
+                                }
+                                return Status.OK_STATUS;
                             }
-                            MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message);
-                        });
+                        };
+                        
+                        job.setSystem(true);
+                        job.schedule();
                     }
-
-                    return Status.OK_STATUS;
                 }
-            }
-            // Encrypted password key error
-            catch(GeneralSecurityException ex) {
-                ex.printStackTrace();
                 
-                if(PlatformUI.isWorkbenchRunning()) {
+                if(running.isEmpty()) {
+                    break;
+                }
+                
+                // Wait for a fetch to finish or for the earliest time a fetch can be given up on
+                long giveUpTime = Long.MAX_VALUE;
+                for(RepoFetch fetch : running) {
+                    giveUpTime = Math.min(giveUpTime, fetch.deadline + TIMEOUT_GRACE);
+                }
+                
+                RepoFetch done = finished.poll(Math.max(0, giveUpTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                
+                // Give up on fetches that don't respond to being cancelled. They finish in their own time and their repos are not fetched again until then.
+                long now = System.currentTimeMillis();
+                for(RepoFetch fetch : new ArrayList<>(running)) {
+                    if(fetch == done || now > fetch.deadline + TIMEOUT_GRACE) {
+                        running.remove(fetch);
+                        hostCounts.merge(fetch.host, -1, Integer::sum);
+                    }
+                }
+            }
+        }
+        catch(InterruptedException ex) {
+            ex.printStackTrace();
+        }
+        finally {
+            // Clear ProxyAuthenticator unless fetches that were given up on still need it. The last of those clears it.
+            synchronized(fInFlight) {
+                fIsFetching = false;
+                if(fInFlight.isEmpty()) {
+                    ProxyAuthenticator.clear();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Fetch a repo. Called from a fetch Job.
+     */
+    private void fetchRepo(RepoFetch fetch, Set<IArchiRepository> changedRepos, AtomicBoolean needsRefresh) {
+        IArchiRepository repo = fetch.repo;
+        UsernamePassword npw = null;
+        FetchProgressMonitor monitor = new FetchProgressMonitor(fetch.deadline);
+
+        try {
+            if(GraficoUtils.isHTTP(fetch.url)) {
+                // Get credentials. In some public repos we can still fetch without needing a password so we try anyway
+                EncryptedCredentialsStorage cs = EncryptedCredentialsStorage.forRepository(repo);
+                npw = cs.getUsernamePassword();
+            }
+
+            // Ask the Remote for its branches and only fetch if they differ from ours
+            if(!repo.hasRemoteChanges(npw)) {
+                reschedule(fetch.schedule, false);
+                return;
+            }
+            
+            // Fetch
+            FetchResult fetchResult = repo.fetchFromRemote(npw, monitor, false);
+
+            // We got here, so the tree can be refreshed later
+            needsRefresh.set(true);
+            
+            // Remote branches might have been deleted or added
+            boolean hasChanges = !fetchResult.getTrackingRefUpdates().isEmpty();
+            if(hasChanges) {
+                changedRepos.add(repo);
+            }
+            
+            reschedule(fetch.schedule, hasChanges);
+        }
+        catch(IOException | GitAPIException ex) {
+            // Timed out, so try again when next due
+            if(monitor.isTimedOut) {
+                ModelRepositoryPlugin.getInstance().getLog().warn("Background fetch timed out: " + fetch.url); //$NON-NLS-1$
+                return;
+            }
+            
+            // Background fetch was stopped
+            if(!canRun() || isStopped) {
+                return;
+            }
+            
+            ex.printStackTrace();
+            
+            if(ex instanceof TransportException) {
+                // Only show the message for the first failed fetch
+                if(stop() && PlatformUI.isWorkbenchRunning()) {
                     // Disable background fetch
                     disablePreference();
-                    
+
                     // Show message
                     Display.getDefault().syncExec(() -> {
-                        String message = Messages.FetchJob_0 + "\n"; //$NON-NLS-1$
-                        MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message + ex.getMessage());
+                        String message = Messages.FetchJob_0 + " "; //$NON-NLS-1$
+                        message += Messages.FetchJob_1 + "\n\n"; //$NON-NLS-1$
+                        message += repo.getName() + "\n"; //$NON-NLS-1$
+                        message += fetch.url + "\n"; //$NON-NLS-1$
+                        MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message);
                     });
                 }
-
-                return Status.OK_STATUS;
             }
-            finally {
-                // Clear ProxyAuthenticator
-                ProxyAuthenticator.clear();
+        }
+        // Encrypted password key error
+        catch(GeneralSecurityException ex) {
+            ex.printStackTrace();
+            
+            if(stop() && PlatformUI.isWorkbenchRunning()) {
+                // Disable background fetch
+                disablePreference();
                 
-                // Clear credentials
-                if(npw != null) {
-                    npw.clear();
-                }
+                // Show message
+                Display.getDefault().syncExec(() -> {
+                    String message = Messages.FetchJob_0 + "\n"; //$NON-NLS-1$
+                    MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message + ex.getMessage());
+                });
             }
         }
-
-        if(needsRefresh) {
-            fViewer.refreshInBackground();
+        finally {
+            // Clear credentials
+            if(npw != null) {
+                npw.clear();
+            }
         }
-
-        if(canRun()) {
-            int seconds = ModelRepositoryPlugin.getInstance().getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_INTERVAL);
-            schedule(seconds * 1000); // Schedule again in x milliseconds if possible
+    }
+    
+    /**
+     * Set when a repo is next due to be fetched.
+     * A repo that changed is due again after the base interval. Each time it has not changed its interval is doubled up to the maximum interval.
+     */
+    private void reschedule(FetchSchedule schedule, boolean hasChanges) {
+        if(hasChanges) {
+            schedule.interval = fBaseInterval;
+        }
+        else {
+            schedule.interval = Math.min(Math.max(schedule.interval, fBaseInterval) * 2, fMaxInterval);
         }
         
-        return Status.OK_STATUS;
+        // Relative to the start of the cycle so that the repo is due when the job next runs after the interval
+        schedule.nextTime = fCycleTime + schedule.interval;
+    }
+    
+    /**
+     * Stop background fetching
+     * @return true if this stopped it, false if it was already stopped
+     */
+    private synchronized boolean stop() {
+        if(isStopped) {
+            return false;
+        }
+        isStopped = true;
+        return true;
     }
     
     protected boolean canRun() {
@@ -6,21 +6,18 @@
 package org.archicontribs.modelrepository.views.repositories;
 
 import java.io.File;
-import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
-import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.views.repositories.RepositoryStatusScanner.StatusCache;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.IDecoration;
@@ -30,7 +27,6 @@ import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
 import org.eclipse.jface.viewers.ViewerComparator;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
@@ -47,18 +43,8 @@ import com.archimatetool.editor.utils.StringUtils;
  */
 public class ModelRepositoryTreeViewer extends TreeViewer implements IRepositoryListener {
     
-    // Cache status for expensive calls
-    private class StatusCache {
-        BranchInfo branchInfo;
-        boolean hasLocalChanges;
-        
-        public StatusCache(BranchInfo branchInfo, boolean hasLocalChanges) {
-            this.branchInfo = branchInfo;
-            this.hasLocalChanges = hasLocalChanges;
-        }
-    }
-    
-    private Map<IArchiRepository, StatusCache> cache;
+    // Status of repos for expensive calls
+    private RepositoryStatusScanner fStatusScanner = new RepositoryStatusScanner(this);
 
     /**
      * Constructor
@@ -79,6 +65,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
             @Override
             public void widgetDisposed(DisposeEvent e) {
                 RepositoryListenerManager.INSTANCE.removeListener(ModelRepositoryTreeViewer.this);
+                fStatusScanner.dispose();
             }
         });
         
@@ -95,8 +82,8 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         
         setInput(""); //$NON-NLS-1$
         
-        // Refresh File System Job
-        RefreshFilesJob.getInstance().init(this);
+        // Repository Folder Watcher
+        RepositoryFolderWatcher.getInstance().init(this);
         
         // Fetch Job
         FetchJob.getInstance().init(this);
@@ -127,8 +114,10 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 refresh();
                 break;
 
+            // The repo's status may have changed, the list of repos has not
             default:
-                refresh();
+                update(repository, null);
+                fStatusScanner.scan(repository);
                 break;
         }
     }
@@ -162,23 +151,15 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
     }
     
     /**
-     * Update the status cache
+     * The status of a repo was got by the status scanner. Called from a background thread.
      */
-    private void updateStatusCache(List<IArchiRepository> repos) {
-        cache = new Hashtable<IArchiRepository, StatusCache>();
-        
-        for(IArchiRepository repo : repos) {
-            try {
-                BranchInfo branchInfo = repo.getBranchStatus().getCurrentLocalBranch();
-                if(branchInfo != null) { // This can be null!!
-                    StatusCache sc = new StatusCache(branchInfo, repo.hasLocalChanges());
-                    cache.put(repo, sc);
+    void statusChanged(IArchiRepository repo) {
+        if(!getControl().isDisposed()) {
+            getControl().getDisplay().asyncExec(() -> {
+                if(!getControl().isDisposed()) {
+                    update(repo, null);
                 }
-            }
-            catch(IOException | GitAPIException ex) {
-                ex.printStackTrace();
-                ModelRepositoryPlugin.getInstance().getLog().error("Error getting Model Repository Status", ex); //$NON-NLS-1$
-            }
+            });
         }
     }
     
@@ -219,7 +200,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         public Object[] getChildren(Object parent) {
             if(parent instanceof File) {
                 List<IArchiRepository> repos = getRepositories((File)parent);
-                updateStatusCache(repos); // update status cache
+                fStatusScanner.scan(repos); // update status in the background
                 return repos.toArray();
             }
             
@@ -240,7 +221,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         Image getImage(IArchiRepository repo) {
             Image image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_MODEL);
             
-            StatusCache sc = cache.get(repo);
+            StatusCache sc = fStatusScanner.getStatus(repo);
             if(sc != null) {
                 if(sc.hasLocalChanges) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
@@ -264,7 +245,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         String getStatusText(IArchiRepository repo) {
             String s = ""; //$NON-NLS-1$
             
-            StatusCache sc = cache.get(repo);
+            StatusCache sc = fStatusScanner.getStatus(repo);
             if(sc != null) {
                 if(sc.hasLocalChanges) {
                     s += Messages.ModelRepositoryTreeViewer_2;
@@ -302,7 +283,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 // Clear this first
                 cell.setForeground(null);
                 
-                StatusCache sc = cache.get(repo);
+                StatusCache sc = fStatusScanner.getStatus(repo);
                 if(sc != null) {
                     // Repository name and current branch
                     cell.setText(repo.getName() + " [" + sc.branchInfo.getShortName() + "]"); //$NON-NLS-1$ //$NON-NLS-2$
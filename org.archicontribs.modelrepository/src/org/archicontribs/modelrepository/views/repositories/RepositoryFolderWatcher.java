@@ -0,0 +1,409 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Watches the repository root folder and each repo's HEAD, refs and temp model file for changes
+ * 
+ * Changes are collected until no more have happened for a short time, and then an event is sent for each changed repo.
+ * A change to HEAD or a local branch sends HISTORY_CHANGED and BRANCHES_CHANGED, a change to a remote branch sends BRANCHES_CHANGED
+ * and a change to the temp model file sends REPOSITORY_CHANGED. The tree updates the status of just the repo for these events
+ * and is only refreshed when a repo folder is added or removed.
+ * 
+ * @author Phillip Beauvoir
+ */
+public class RepositoryFolderWatcher {
+    
+    private static RepositoryFolderWatcher instance = new RepositoryFolderWatcher();
+    public static RepositoryFolderWatcher getInstance() {
+        return instance;
+    }
+    
+    /**
+     * Time to wait for more changes before sending events
+     */
+    private final static int DELAY = 500;
+    
+    /**
+     * A watched folder and the repo that it is in
+     */
+    private static class WatchedFolder {
+        Path folder;
+        File repoFolder; // null for the root folder
+        
+        WatchedFolder(Path folder, File repoFolder) {
+            this.folder = folder;
+            this.repoFolder = repoFolder;
+        }
+    }
+    
+    private ModelRepositoryTreeViewer fViewer;
+    
+    private WatchService fWatchService;
+    
+    private Map<WatchKey, WatchedFolder> fWatchedFolders = new HashMap<>();
+    
+    /**
+     * Local repo folder -> names of events to send
+     */
+    private Map<File, Set<String>> fPendingEvents = new LinkedHashMap<>();
+    
+    private boolean fRootChanged;
+    
+    private Job fNotifyJob = new Job("Repository Folder Watcher") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            notifyChanges();
+            return Status.OK_STATUS;
+        }
+    };
+    
+    /**
+     * Preference changed to scan the repository folder
+     */
+    private IPropertyChangeListener preferenceChangeListener = event -> {
+        if(IPreferenceConstants.PREFS_SCAN_REPOSITORY_FOLDER == event.getProperty()) {
+            if(event.getNewValue() == Boolean.TRUE) {
+                start();
+            }
+            else {
+                stop();
+            }
+        }
+    };
+    
+    private RepositoryFolderWatcher() {
+        fNotifyJob.setSystem(true);
+    }
+    
+    void init(ModelRepositoryTreeViewer viewer) {
+        fViewer = viewer;
+        
+        // On Tree dispose...
+        fViewer.getControl().addDisposeListener(event -> {
+            ModelRepositoryPlugin.getInstance().getPreferenceStore().removePropertyChangeListener(preferenceChangeListener);
+            stop();
+        });
+        
+        ModelRepositoryPlugin.getInstance().getPreferenceStore().addPropertyChangeListener(preferenceChangeListener);
+        
+        start();
+    }
+    
+    private synchronized void start() {
+        if(!canRun() || fWatchService != null) {
+            return;
+        }
+        
+        try {
+            fWatchService = FileSystems.getDefault().newWatchService();
+            
+            Path rootFolder = fViewer.getRootFolder().toPath();
+            if(Files.isDirectory(rootFolder)) {
+                register(rootFolder, null);
+                registerRepositories();
+            }
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+            stop();
+            return;
+        }
+        
+        WatchService watchService = fWatchService;
+        
+        Thread thread = new Thread(() -> watch(watchService), "Repository Folder Watcher"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private synchronized void stop() {
+        if(fWatchService != null) {
+            try {
+                fWatchService.close(); // This ends the watch thread
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+            fWatchService = null;
+        }
+        
+        fWatchedFolders.clear();
+        fPendingEvents.clear();
+        fRootChanged = false;
+        fNotifyJob.cancel();
+    }
+    
+    /**
+     * Wait for changes until the WatchService is closed
+     */
+    private void watch(WatchService watchService) {
+        while(true) {
+            WatchKey key;
+            
+            try {
+                key = watchService.take();
+            }
+            catch(ClosedWatchServiceException | InterruptedException ex) {
+                return;
+            }
+            
+            synchronized(this) {
+                // Stopped
+                if(watchService != fWatchService) {
+                    return;
+                }
+                
+                WatchedFolder watchedFolder = fWatchedFolders.get(key);
+                if(watchedFolder != null) {
+                    for(WatchEvent<?> event : key.pollEvents()) {
+                        handleEvent(watchedFolder, event);
+                    }
+                }
+                
+                // Folder was deleted
+                if(!key.reset()) {
+                    fWatchedFolders.remove(key);
+                }
+                
+                // Wait for more changes
+                if(fRootChanged || !fPendingEvents.isEmpty()) {
+                    fNotifyJob.cancel();
+                    fNotifyJob.schedule(DELAY);
+                }
+            }
+        }
+    }
+    
+    private void handleEvent(WatchedFolder watchedFolder, WatchEvent<?> event) {
+        // Events were lost so refresh everything
+        if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            fRootChanged = true;
+            if(watchedFolder.repoFolder != null) {
+                addPendingEvents(watchedFolder.repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED,
+                        IRepositoryListener.REPOSITORY_CHANGED);
+            }
+            return;
+        }
+        
+        Path path = watchedFolder.folder.resolve((Path)event.context());
+        
+        // A repo folder was added, deleted or renamed
+        if(watchedFolder.repoFolder == null) {
+            if(event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                fRootChanged = true;
+            }
+            return;
+        }
+        
+        File repoFolder = watchedFolder.repoFolder;
+        Path gitFolder = repoFolder.toPath().resolve(Constants.DOT_GIT);
+        String fileName = path.getFileName().toString();
+        
+        // Lock files are written before the file they lock
+        if(fileName.endsWith(".lock")) { //$NON-NLS-1$
+            return;
+        }
+        
+        // Files in the .git folder
+        if(watchedFolder.folder.equals(gitFolder)) {
+            if(Constants.HEAD.equals(fileName) || Constants.PACKED_REFS.equals(fileName)) {
+                addPendingEvents(repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED);
+            }
+            else if(IGraficoConstants.LOCAL_ARCHI_FILENAME.equals(fileName)) {
+                addPendingEvents(repoFolder, IRepositoryListener.REPOSITORY_CHANGED);
+            }
+            return;
+        }
+        
+        // A new folder of branches
+        if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            registerTree(path, repoFolder);
+        }
+        
+        // Local branch
+        if(path.startsWith(gitFolder.resolve(Constants.R_HEADS))) {
+            addPendingEvents(repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED);
+        }
+        // Remote branch
+        else if(path.startsWith(gitFolder.resolve(Constants.R_REMOTES))) {
+            addPendingEvents(repoFolder, IRepositoryListener.BRANCHES_CHANGED);
+        }
+    }
+    
+    private void addPendingEvents(File repoFolder, String... eventNames) {
+        Set<String> events = fPendingEvents.computeIfAbsent(repoFolder, folder -> new LinkedHashSet<>());
+        for(String eventName : eventNames) {
+            events.add(eventName);
+        }
+    }
+    
+    /**
+     * Send the events for the changes collected since the last time
+     */
+    private void notifyChanges() {
+        Map<File, Set<String>> pendingEvents;
+        boolean rootChanged;
+        
+        synchronized(this) {
+            if(fWatchService == null) {
+                return;
+            }
+            
+            pendingEvents = fPendingEvents;
+            fPendingEvents = new LinkedHashMap<>();
+            rootChanged = fRootChanged;
+            fRootChanged = false;
+            
+            // Watch new repos
+            if(rootChanged) {
+                registerRepositories();
+            }
+        }
+        
+        if(fViewer.getControl().isDisposed()) {
+            return;
+        }
+        
+        if(rootChanged) {
+            fViewer.refreshInBackground();
+        }
+        
+        if(!pendingEvents.isEmpty()) {
+            fViewer.getControl().getDisplay().asyncExec(() -> {
+                for(Map.Entry<File, Set<String>> entry : pendingEvents.entrySet()) {
+                    IArchiRepository repo = new ArchiRepository(entry.getKey());
+                    for(String eventName : entry.getValue()) {
+                        RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(eventName, repo);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Watch the .git folder and refs of each repo that is not already watched
+     */
+    private void registerRepositories() {
+        Set<Path> watched = new LinkedHashSet<>();
+        for(WatchedFolder watchedFolder : fWatchedFolders.values()) {
+            watched.add(watchedFolder.folder);
+        }
+        
+        for(IArchiRepository repo : fViewer.getRepositories(fViewer.getRootFolder())) {
+            File repoFolder = repo.getLocalRepositoryFolder();
+            Path gitFolder = repoFolder.toPath().resolve(Constants.DOT_GIT);
+            
+            if(!watched.contains(gitFolder)) {
+                try {
+                    register(gitFolder, repoFolder);
+                    registerRefs(gitFolder, repoFolder);
+                }
+                // The repo was deleted
+                catch(IOException ex) {
+                }
+            }
+        }
+    }
+    
+    private void registerRefs(Path gitFolder, File repoFolder) {
+        for(String refsFolder : new String[] { Constants.R_HEADS, Constants.R_REMOTES }) {
+            Path folder = gitFolder.resolve(refsFolder);
+            
+            // Watch refs for refs/heads and refs/remotes to be created
+            if(!Files.isDirectory(folder)) {
+                folder = folder.getParent();
+            }
+            
+            registerTree(folder, repoFolder);
+        }
+    }
+    
+    /**
+     * Watch a folder and its sub-folders
+     */
+    private void registerTree(Path folder, File repoFolder) {
+        try {
+            List<Path> folders;
+            try(Stream<Path> stream = Files.walk(folder)) {
+                folders = stream.filter(Files::isDirectory).collect(Collectors.toList());
+            }
+            
+            for(Path path : folders) {
+                register(path, repoFolder);
+            }
+        }
+        // The folder was deleted
+        catch(IOException ex) {
+        }
+    }
+    
+    /**
+     * Stop watching a repo's folders so that they are not held open and the repo can be deleted
+     * @param repoFolder The local repo folder
+     */
+    public synchronized void unregister(File repoFolder) {
+        File folder = repoFolder.getAbsoluteFile();
+        
+        for(Iterator<Entry<WatchKey, WatchedFolder>> iter = fWatchedFolders.entrySet().iterator(); iter.hasNext();) {
+            Entry<WatchKey, WatchedFolder> entry = iter.next();
+            File watchedRepoFolder = entry.getValue().repoFolder;
+            if(watchedRepoFolder != null && folder.equals(watchedRepoFolder.getAbsoluteFile())) {
+                entry.getKey().cancel();
+                iter.remove();
+            }
+        }
+        
+        fPendingEvents.keySet().removeIf(pendingRepoFolder -> folder.equals(pendingRepoFolder.getAbsoluteFile()));
+    }
+    
+    private void register(Path folder, File repoFolder) throws IOException {
+        // Registering a folder again returns the same key
+        WatchKey key = folder.register(fWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        fWatchedFolders.put(key, new WatchedFolder(folder, repoFolder));
+    }
+    
+    private boolean canRun() {
+        return !fViewer.getControl().isDisposed() &&
+                ModelRepositoryPlugin.getInstance().getPreferenceStore().getBoolean(IPreferenceConstants.PREFS_SCAN_REPOSITORY_FOLDER);
+    }
+}
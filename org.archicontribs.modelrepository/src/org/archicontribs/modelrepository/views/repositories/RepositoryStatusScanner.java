@@ -0,0 +1,270 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.BranchInfo;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * Gets the status of repos in background Jobs
+ * 
+ * Each repo's status is got in its own Job and the Jobs run in parallel in a JobGroup with a limited number of threads.
+ * Scan requests made close together are coalesced into one scan that starts a short delay after the first of them.
+ * A scan doesn't cancel the Jobs of earlier scans, as a stream of requests would then stop slow repos from ever getting a status. Instead a repo whose Job is waiting to run is not scanned again,
+ * and a repo whose Job is running is scanned again when it finishes.
+ * The tree is told about each repo's status as soon as it is got.
+ * 
+ * @author Phillip Beauvoir
+ */
+class RepositoryStatusScanner {
+    
+    /**
+     * Status of a repo
+     */
+    static class StatusCache {
+        BranchInfo branchInfo;
+        boolean hasLocalChanges;
+        
+        StatusCache(BranchInfo branchInfo, boolean hasLocalChanges) {
+            this.branchInfo = branchInfo;
+            this.hasLocalChanges = hasLocalChanges;
+        }
+    }
+    
+    /**
+     * Time to wait for more scan requests before scanning
+     */
+    private static final int DELAY = 100;
+    
+    private static final int MAX_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    
+    private ModelRepositoryTreeViewer fViewer;
+    
+    /**
+     * Local repo folder -> StatusCache
+     */
+    private Map<File, StatusCache> fCache = new ConcurrentHashMap<>();
+    
+    private List<IArchiRepository> fPendingRepos;
+    
+    /**
+     * Repos to scan without changing the other repos that are scanned
+     */
+    private Set<IArchiRepository> fPendingChangedRepos = new LinkedHashSet<>();
+    
+    /**
+     * Local repo folder -> Job that is waiting or running
+     */
+    private Map<File, ScanJob> fJobs = new HashMap<>();
+    
+    private JobGroup fJobGroup = new JobGroup("Repository Status Scan", MAX_THREADS, 0); //$NON-NLS-1$
+    
+    private Job fStartJob = new Job("Repository Status Scan") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            startScan();
+            return Status.OK_STATUS;
+        }
+    };
+    
+    RepositoryStatusScanner(ModelRepositoryTreeViewer viewer) {
+        fViewer = viewer;
+        fStartJob.setSystem(true);
+    }
+    
+    /**
+     * @return The last status got for a repo, or null
+     */
+    StatusCache getStatus(IArchiRepository repo) {
+        return fCache.get(repo.getLocalRepositoryFolder());
+    }
+    
+    /**
+     * Scan the status of repos. Status of other repos is forgotten.
+     */
+    synchronized void scan(List<IArchiRepository> repos) {
+        fPendingRepos = new ArrayList<>(repos);
+        
+        Set<File> folders = new HashSet<>();
+        for(IArchiRepository repo : repos) {
+            folders.add(repo.getLocalRepositoryFolder());
+        }
+        fCache.keySet().retainAll(folders);
+        
+        scheduleStartJob();
+    }
+    
+    /**
+     * Scan the status of a repo that has changed
+     */
+    synchronized void scan(IArchiRepository repo) {
+        fPendingChangedRepos.add(repo);
+        
+        scheduleStartJob();
+    }
+    
+    /**
+     * Start the scan after a delay to wait for more requests.
+     * If the start Job is already waiting it is not rescheduled, as a stream of requests would then put off the scan for ever.
+     * If it is running it is run again so that the requests made since it started are scanned.
+     */
+    private void scheduleStartJob() {
+        int state = fStartJob.getState();
+        if(state != Job.WAITING && state != Job.SLEEPING) {
+            fStartJob.schedule(DELAY);
+        }
+    }
+    
+    /**
+     * Cancel any scan
+     */
+    synchronized void dispose() {
+        fPendingRepos = null;
+        fPendingChangedRepos.clear();
+        fStartJob.cancel();
+        fJobs.clear();
+        fJobGroup.cancel();
+    }
+    
+    private synchronized void startScan() {
+        List<IArchiRepository> repos = fPendingRepos;
+        fPendingRepos = null;
+        
+        for(IArchiRepository repo : fPendingChangedRepos) {
+            startScan(repo);
+        }
+        fPendingChangedRepos.clear();
+        
+        if(repos == null) {
+            return;
+        }
+        
+        Set<File> folders = new HashSet<>();
+        
+        for(IArchiRepository repo : repos) {
+            folders.add(repo.getLocalRepositoryFolder());
+            startScan(repo);
+        }
+        
+        // Repos that are no longer in the tree don't need scanning
+        for(Iterator<Entry<File, ScanJob>> iter = fJobs.entrySet().iterator(); iter.hasNext();) {
+            Entry<File, ScanJob> entry = iter.next();
+            if(!folders.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iter.remove();
+            }
+        }
+    }
+    
+    private void startScan(IArchiRepository repo) {
+        File folder = repo.getLocalRepositoryFolder();
+        ScanJob job = fJobs.get(folder);
+        
+        // Running, so scan again when it is done as the status may have changed since it started
+        if(job != null && job.getState() == Job.RUNNING) {
+            job.rescan = true;
+        }
+        // Not waiting to run
+        else if(job == null || job.getState() == Job.NONE) {
+            job = new ScanJob(repo);
+            fJobs.put(folder, job);
+            job.schedule();
+        }
+    }
+    
+    /**
+     * Gets the status of one repo
+     */
+    private class ScanJob extends Job {
+        private IArchiRepository repo;
+        
+        /**
+         * Scan again when done. Guarded by the scanner
+         */
+        private boolean rescan;
+        
+        ScanJob(IArchiRepository repo) {
+            super("Repository Status"); //$NON-NLS-1$
+            this.repo = repo;
+            setSystem(true);
+            setJobGroup(fJobGroup);
+        }
+        
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            if(monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+            
+            StatusCache sc = getStatusCache(repo);
+            
+            if(monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+            
+            if(sc != null) {
+                fCache.put(repo.getLocalRepositoryFolder(), sc);
+            }
+            else {
+                fCache.remove(repo.getLocalRepositoryFolder());
+            }
+            
+            fViewer.statusChanged(repo);
+            
+            synchronized(RepositoryStatusScanner.this) {
+                if(rescan && fJobs.get(repo.getLocalRepositoryFolder()) == this) {
+                    rescan = false;
+                    schedule(); // Runs again when this run is done
+                }
+                else {
+                    fJobs.remove(repo.getLocalRepositoryFolder(), this);
+                }
+            }
+            
+            return Status.OK_STATUS;
+        }
+    }
+    
+    private StatusCache getStatusCache(IArchiRepository repo) {
+        // Local repo was perhaps deleted
+        if(!repo.getLocalRepositoryFolder().exists()) {
+            return null;
+        }
+        
+        try {
+            BranchInfo branchInfo = repo.getBranchStatus().getCurrentLocalBranch();
+            if(branchInfo != null) { // This can be null!!
+                return new StatusCache(branchInfo, repo.hasLocalChanges());
+            }
+        }
+        catch(IOException | GitAPIException ex) {
+            ex.printStackTrace();
+            ModelRepositoryPlugin.getInstance().getLog().error("Error getting Model Repository Status", ex); //$NON-NLS-1$
+        }
+        
+        return null;
+    }
+}